@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+// The embedding cache must never hand one person's embedding to another: a
+// different face in the same box is embedded again whether the tracker keeps
+// the track (someone stepping straight into the same spot) or starts a new
+// one, and an ended track's entry is gone. The same face, with sensor noise,
+// is still served from the cache.
+class EmbeddingCacheTest {
+    private final Rect box = new Rect(400, 200, 180, 180);
+    private final float[] firstEmbedding = new float[FaceEmbedder.EMBEDDING_SIZE];
+    private Mat first;
+    private Mat second;
+    private EmbeddingCache cache;
+    private FaceTracker tracker;
+    private long frame;
+
+    @BeforeAll
+    static void loadOpenCv() {
+        // The natives bundled in the openpnp jar, so no java.library.path is needed
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @BeforeEach
+    void setUp() {
+        Core.setRNGSeed(1);
+        first = syntheticFace();
+        second = syntheticFace();
+        cache = new EmbeddingCache(64, 60_000, EmbeddingCache.DEFAULT_MAX_HASH_DISTANCE);
+        tracker = new FaceTracker(CameraStream.TRACK_MIN_IOU, CameraStream.TRACK_MAX_MISSED_FRAMES, 1, 0, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.release();
+        first.release();
+        second.release();
+    }
+
+    @Test
+    void servesTheSameFaceOnTheSameTrack() {
+        FaceTrack track = tracker.update(new Rect[]{box}, frame++).get(0);
+        cache.put(track.id, cache.hash(first), box, firstEmbedding);
+
+        Mat firstNoisy = withNoise(first);
+        assertSame(firstEmbedding, cache.get(track.id, cache.hash(firstNoisy), box));
+        firstNoisy.release();
+    }
+
+    @Test
+    void reembedsADifferentFaceThatKeepsTheTrack() {
+        FaceTrack track = tracker.update(new Rect[]{box}, frame++).get(0);
+        cache.put(track.id, cache.hash(first), box, firstEmbedding);
+
+        // Someone else steps straight into the same box: the tracker keeps the track
+        FaceTrack next = tracker.update(new Rect[]{box}, frame++).get(0);
+        assertEquals(track.id, next.id);
+        assertNull(cache.get(next.id, cache.hash(second), box));
+    }
+
+    @Test
+    void dropsEndedTracksAndNeverServesAnotherTracksEntry() {
+        FaceTrack track = tracker.update(new Rect[]{box}, frame++).get(0);
+        cache.put(track.id, cache.hash(first), box, firstEmbedding);
+
+        // The box empties for long enough that the track ends, then someone arrives
+        for (int i = 0; i <= CameraStream.TRACK_MAX_MISSED_FRAMES; i++) {
+            tracker.update(new Rect[0], frame++);
+        }
+        List<FaceTrack> ended = tracker.endedTracks();
+        assertEquals(1, ended.size());
+        assertEquals(track.id, ended.get(0).id);
+        for (FaceTrack endedTrack : ended) {
+            cache.remove(endedTrack.id);
+        }
+        assertEquals(0, cache.size());
+
+        FaceTrack newcomer = tracker.update(new Rect[]{box}, frame++).get(0);
+        assertNotEquals(track.id, newcomer.id);
+        cache.put(track.id, cache.hash(first), box, firstEmbedding);
+        assertNull(cache.get(newcomer.id, cache.hash(first), box));
+    }
+
+    @Test
+    void isOffByDefault() {
+        assertFalse(EmbeddingCache.fromConfig(new Config(new Properties()), "").enabled());
+    }
+
+    // Smooth random structure, so the crop's difference hash has clear steps.
+    private static Mat syntheticFace() {
+        Mat face = new Mat(FaceEmbedder.INPUT_SIZE, FaceEmbedder.INPUT_SIZE, CvType.CV_32FC3);
+        Core.randu(face, 0, 1);
+        Imgproc.GaussianBlur(face, face, new Size(0, 0), 12);
+        Core.normalize(face, face, 0, 1, Core.NORM_MINMAX);
+        return face;
+    }
+
+    private static Mat withNoise(Mat face) {
+        Mat noise = new Mat(face.size(), face.type());
+        Core.randn(noise, 0, 0.01);
+        Mat noisy = new Mat();
+        Core.add(face, noise, noisy);
+        noise.release();
+        return noisy;
+    }
+}
@@ -0,0 +1,371 @@
+import opensesame.bench.Stage;
+import opensesame.bench.StageFactory;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.DataBuffers;
+import org.tensorflow.types.TFloat32;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+// The stages of the recognition path as the application runs them, for the
+// JMH benchmarks in opensesame.bench (see StageFactory for why this class sits
+// in the unnamed package). Inputs are synthetic and seeded: frames are noise,
+// since cropping and scaling cost the same whatever the pixels show, and
+// galleries are FaceNet-like unit vectors with each query a noisy re-capture
+// of an enrolled person.
+public class BenchStages implements StageFactory {
+    private static final int FRAME_WIDTH = 1280;
+    private static final int FRAME_HEIGHT = 720;
+    private static final int FACE_SIZE = 180;
+    private static final int QUERIES = 1024;
+    private static final double SAMPLE_NOISE = 0.02;
+
+    static {
+        // The OpenCV natives bundled in the openpnp jar, so no java.library.path is needed
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    public BenchStages() {
+    }
+
+    @Override
+    public Stage preprocess(int faces) {
+        Mat frame = noiseFrame();
+        Rect[] rects = faceGrid(faces);
+        FacePreprocessor preprocessor = new FacePreprocessor();
+        MatArena arena = new MatArena();
+        return new Stage() {
+            @Override
+            public Object run() {
+                Mat last = null;
+                for (Rect rect : rects) {
+                    last = preprocessor.preprocess(frame, rect, arena);
+                }
+                arena.reset();
+                return last;
+            }
+
+            @Override
+            public void close() {
+                arena.release();
+                frame.release();
+            }
+        };
+    }
+
+    @Override
+    public Stage embed(String modelPath, int faces) {
+        FaceEmbedder embedder = new TensorFlowEmbedder(StandInModel.orStandIn(modelPath));
+        Mat frame = noiseFrame();
+        FacePreprocessor preprocessor = new FacePreprocessor();
+        MatArena arena = new MatArena();
+        List<Mat> batch = new ArrayList<>(faces);
+        for (Rect rect : faceGrid(faces)) {
+            batch.add(preprocessor.preprocess(frame, rect, arena));
+        }
+        return new Stage() {
+            @Override
+            public Object run() {
+                return embedder.getEmbeddings(batch);
+            }
+
+            @Override
+            public void close() {
+                embedder.close();
+                arena.release();
+                frame.release();
+            }
+        };
+    }
+
+    @Override
+    public Stage match(String matcher, int identities, int faces) {
+        Random random = new Random(identities);
+        float[][] centres = identities(random, identities);
+        Path file = writeGallery(random, centres);
+        EmbeddingStore store = EmbeddingStore.open(file.toString(), FaceEmbedder.EMBEDDING_SIZE);
+        LiveGallery gallery = new LiveGallery(store, matcher, PrototypeMatcher.DEFAULT_PROTOTYPES, 0);
+        float[][] queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = perturb(centres[random.nextInt(identities)], random);
+        }
+        return new Stage() {
+            private int next;
+
+            @Override
+            public Object run() {
+                FaceMatch closest = null;
+                for (int i = 0; i < faces; i++) {
+                    closest = gallery.nearest(queries[next]);
+                    next = (next + 1) % QUERIES;
+                }
+                return closest;
+            }
+
+            @Override
+            public void close() {
+                gallery.close();
+                store.close();
+                deleteQuietly(file);
+            }
+        };
+    }
+
+    @Override
+    public Stage loadGallery(String matcher, int identities) {
+        Random random = new Random(identities);
+        Path file = writeGallery(random, identities(random, identities));
+        return new Stage() {
+            @Override
+            public Object run() {
+                EmbeddingStore store = EmbeddingStore.open(file.toString(), FaceEmbedder.EMBEDDING_SIZE);
+                try (LiveGallery gallery = new LiveGallery(store, matcher, PrototypeMatcher.DEFAULT_PROTOTYPES, 0)) {
+                    return gallery.size();
+                } finally {
+                    store.close();
+                }
+            }
+
+            @Override
+            public void close() {
+                deleteQuietly(file);
+            }
+        };
+    }
+
+    @Override
+    public Stage scan(String kernel, int rows) {
+        Random random = new Random(rows);
+        int dimension = FaceEmbedder.EMBEDDING_SIZE;
+        float[][] queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = gaussian(random);
+        }
+        Function<float[], Object> nearest;
+        switch (kernel) {
+            case "map": {
+                Map<String, float[]> gallery = new HashMap<>();
+                for (int i = 0; i < rows; i++) {
+                    gallery.put("id" + i, gaussian(random));
+                }
+                nearest = query -> {
+                    String bestMatch = null;
+                    double minDistance = Double.MAX_VALUE;
+                    for (Map.Entry<String, float[]> entry : gallery.entrySet()) {
+                        double distance = ExactMatcher.calculateDistance(query, entry.getValue());
+                        if (distance < minDistance) {
+                            minDistance = distance;
+                            bestMatch = entry.getKey();
+                        }
+                    }
+                    return bestMatch;
+                };
+                break;
+            }
+            case "scalar": {
+                float[] flat = new float[rows * dimension];
+                for (int i = 0; i < rows; i++) {
+                    System.arraycopy(gaussian(random), 0, flat, i * dimension, dimension);
+                }
+                nearest = query -> {
+                    int best = -1;
+                    float bound = Float.POSITIVE_INFINITY;
+                    for (int row = 0; row < rows; row++) {
+                        float d = DistanceKernel.scalarSquaredL2Bounded(query, 0, flat, row * dimension, dimension, bound);
+                        if (d < bound) {
+                            bound = d;
+                            best = row;
+                        }
+                    }
+                    return best;
+                };
+                break;
+            }
+            case "exact": {
+                ExactMatcher matcher = new ExactMatcher();
+                for (int i = 0; i < rows; i++) {
+                    matcher.add("id" + i, gaussian(random));
+                }
+                nearest = matcher::nearest;
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown scan kernel: " + kernel);
+        }
+        return new Stage() {
+            private int next;
+
+            @Override
+            public Object run() {
+                Object result = nearest.apply(queries[next]);
+                next = (next + 1) % QUERIES;
+                return result;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public Stage tensorInput(String conversion, int faces) {
+        List<Mat> batch = new ArrayList<>(faces);
+        for (int i = 0; i < faces; i++) {
+            Mat face = new Mat(FaceEmbedder.INPUT_SIZE, FaceEmbedder.INPUT_SIZE, CvType.CV_32FC3);
+            Core.randu(face, 0.0, 1.0);
+            batch.add(face);
+        }
+        FaceTensorPool pool = new FaceTensorPool();
+        Function<List<Mat>, Object> fill;
+        switch (conversion) {
+            case "per-pixel":
+                fill = faceBatch -> {
+                    try (TFloat32 tensor = perPixelTensor(faceBatch)) {
+                        return tensor.shape();
+                    }
+                };
+                break;
+            case "pooled":
+                fill = pool::fill;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tensor conversion: " + conversion);
+        }
+        return new Stage() {
+            @Override
+            public Object run() {
+                return fill.apply(batch);
+            }
+
+            @Override
+            public void close() {
+                pool.close();
+                for (Mat face : batch) {
+                    face.release();
+                }
+            }
+        };
+    }
+
+    // The conversion TensorFlowEmbedder used before tensor pooling, kept as the baseline.
+    private static TFloat32 perPixelTensor(List<Mat> faces) {
+        float[] inputFlattened = new float[faces.size() * FaceTensorPool.FACE_VALUES];
+        int index = 0;
+        for (Mat face : faces) {
+            for (int y = 0; y < FaceEmbedder.INPUT_SIZE; y++) {
+                for (int x = 0; x < FaceEmbedder.INPUT_SIZE; x++) {
+                    double[] pixel = face.get(y, x);
+                    for (int c = 0; c < FaceEmbedder.CHANNELS; c++) {
+                        inputFlattened[index++] = (float) pixel[c];
+                    }
+                }
+            }
+        }
+        return TFloat32.tensorOf(
+                Shape.of(faces.size(), FaceEmbedder.INPUT_SIZE, FaceEmbedder.INPUT_SIZE, FaceEmbedder.CHANNELS),
+                DataBuffers.of(inputFlattened));
+    }
+
+    private static Mat noiseFrame() {
+        Mat frame = new Mat(FRAME_HEIGHT, FRAME_WIDTH, CvType.CV_8UC3);
+        Core.randu(frame, 0, 256);
+        return frame;
+    }
+
+    // Non-overlapping face-sized rectangles laid out row by row across the frame.
+    private static Rect[] faceGrid(int faces) {
+        int columns = FRAME_WIDTH / FACE_SIZE;
+        int rows = FRAME_HEIGHT / FACE_SIZE;
+        if (faces > columns * rows) {
+            throw new IllegalArgumentException("At most " + columns * rows + " faces fit in a frame");
+        }
+        Rect[] rects = new Rect[faces];
+        for (int i = 0; i < faces; i++) {
+            rects[i] = new Rect((i % columns) * FACE_SIZE, (i / columns) * FACE_SIZE, FACE_SIZE, FACE_SIZE);
+        }
+        return rects;
+    }
+
+    private static float[][] identities(Random random, int count) {
+        float[][] centres = new float[count][];
+        for (int i = 0; i < count; i++) {
+            centres[i] = randomUnitVector(random);
+        }
+        return centres;
+    }
+
+    // A gallery file with SAMPLES_PER_IDENTITY noisy captures of every identity.
+    private static Path writeGallery(Random random, float[][] centres) {
+        try {
+            Path file = Files.createTempFile("bench_gallery", ".bin");
+            Files.delete(file);
+            List<String> names = new ArrayList<>();
+            List<float[]> embeddings = new ArrayList<>();
+            for (int i = 0; i < centres.length; i++) {
+                for (int s = 0; s < SAMPLES_PER_IDENTITY; s++) {
+                    names.add("id" + i);
+                    embeddings.add(perturb(centres[i], random));
+                }
+            }
+            try (EmbeddingStore store = EmbeddingStore.open(file.toString(), FaceEmbedder.EMBEDDING_SIZE)) {
+                store.appendAll(names, embeddings);
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static float[] gaussian(Random random) {
+        float[] v = new float[FaceEmbedder.EMBEDDING_SIZE];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = (float) random.nextGaussian();
+        }
+        return v;
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        return normalize(gaussian(random));
+    }
+
+    private static float[] perturb(float[] v, Random random) {
+        float[] p = new float[v.length];
+        for (int i = 0; i < v.length; i++) {
+            p[i] = v[i] + (float) (random.nextGaussian() * SAMPLE_NOISE);
+        }
+        return normalize(p);
+    }
+
+    private static float[] normalize(float[] v) {
+        double norm = 0;
+        for (float x : v) {
+            norm += x * x;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < v.length; i++) {
+            v[i] *= scale;
+        }
+        return v;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Temporary file; leave it
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package opensesame.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Compares a JMH run (-rf csv) with the saved baseline and fails when a
+// benchmark got slower, or allocates more per operation (-prof gc's
+// gc.alloc.rate.norm), by more than the tolerance. Every benchmark here
+// reports time or bytes per operation, so higher is worse. Benchmarks missing
+// from either file are listed but do not fail the check.
+//
+// Usage: BaselineCheck <baseline.csv> <results.csv> [tolerance]    default: 0.15
+public class BaselineCheck {
+    private static final String ALLOCATION = ":gc.alloc.rate.norm";
+    // Allocation changes smaller than this many bytes per operation are noise
+    private static final double ALLOCATION_SLACK_BYTES = 64;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: BaselineCheck <baseline.csv> <results.csv> [tolerance]");
+            return;
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.15;
+        Map<String, Result> baseline = read(Path.of(args[0]));
+        Map<String, Result> current = read(Path.of(args[1]));
+
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %8s%n", "benchmark", "baseline", "current", "change");
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result before = baseline.get(entry.getKey());
+            Result after = entry.getValue();
+            if (before == null) {
+                System.out.printf("%-90s %14s %14s%n", entry.getKey(), "-", after.format());
+                continue;
+            }
+            double change = after.score / before.score - 1;
+            boolean regressed = change > tolerance
+                    && (!entry.getKey().contains(ALLOCATION) || after.score - before.score > ALLOCATION_SLACK_BYTES);
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf(Locale.ROOT, "%-90s %14s %14s %+7.1f%%%s%n", entry.getKey(), before.format(),
+                    after.format(), change * 100, regressed ? "  REGRESSION" : "");
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.printf("%-90s %14s %14s%n", key, baseline.get(key).format(), "-");
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.printf("%d regression(s) beyond %.0f%%%n", regressions, tolerance * 100);
+            System.exit(1);
+        }
+        System.out.printf("No regressions beyond %.0f%%%n", tolerance * 100);
+    }
+
+    private static final class Result {
+        final double score;
+        final String unit;
+
+        Result(double score, String unit) {
+            this.score = score;
+            this.unit = unit;
+        }
+
+        String format() {
+            return String.format(Locale.ROOT, "%.3f %s", score, unit);
+        }
+    }
+
+    // Primary scores and allocation per operation, keyed by benchmark and parameters.
+    private static Map<String, Result> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        if (lines.isEmpty()) {
+            throw new IOException(file + " is empty");
+        }
+        List<String> header = parseLine(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+        if (benchmark < 0 || score < 0 || unit < 0) {
+            throw new IOException(file + " is not a JMH CSV result file");
+        }
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            List<String> fields = parseLine(line);
+            String name = fields.get(benchmark);
+            if (name.contains(":") && !name.endsWith(ALLOCATION)) continue;
+
+            StringBuilder key = new StringBuilder(name);
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && i < fields.size() && !fields.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                }
+            }
+            results.put(key.toString(), new Result(Double.parseDouble(fields.get(score)), fields.get(unit)));
+        }
+        return results;
+    }
+
+    private static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
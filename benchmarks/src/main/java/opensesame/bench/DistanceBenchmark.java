@@ -0,0 +1,51 @@
+package opensesame.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// One nearest-neighbour scan over a gallery of random embeddings: the original
+// Map + calculateDistance loop against the flat-matrix kernels. The "exact"
+// kernel is SIMD in the forked JVM, which has jdk.incubator.vector. Add -t 2 or
+// -t 4 to see how the scans scale across threads.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class DistanceBenchmark {
+    @Param({"map", "scalar", "exact"})
+    public String kernel;
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private Stage stage;
+
+    @Setup
+    public void setUp() {
+        stage = StageFactory.load().scan(kernel, rows);
+    }
+
+    @Benchmark
+    public Object nearest() {
+        return stage.run();
+    }
+
+    @TearDown
+    public void tearDown() {
+        stage.close();
+    }
+}
@@ -0,0 +1,47 @@
+package opensesame.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// One batched FaceNet session call, input copy and output read included.
+// The model is -Dopensesame.model (default facenet_model.pb in the working
+// directory); without it the stand-in graph is measured and a warning printed.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class EmbeddingBenchmark {
+    @Param({"1", "4", "8"})
+    public int faces;
+
+    private Stage stage;
+
+    @Setup
+    public void setUp() {
+        stage = StageFactory.load().embed(System.getProperty("opensesame.model", "facenet_model.pb"), faces);
+    }
+
+    @Benchmark
+    public Object embedFaces() {
+        return stage.run();
+    }
+
+    @TearDown
+    public void tearDown() {
+        stage.close();
+    }
+}
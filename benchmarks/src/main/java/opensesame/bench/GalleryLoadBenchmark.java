@@ -0,0 +1,49 @@
+package opensesame.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Startup and hot reload: mapping the gallery file and building its matcher
+// (prototype clustering, and the graph for hnsw).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class GalleryLoadBenchmark {
+    @Param({"exact", "hnsw"})
+    public String matcher;
+
+    @Param({"100", "1000", "10000"})
+    public int identities;
+
+    private Stage stage;
+
+    @Setup
+    public void setUp() {
+        stage = StageFactory.load().loadGallery(matcher, identities);
+    }
+
+    @Benchmark
+    public Object loadGallery() {
+        return stage.run();
+    }
+
+    @TearDown
+    public void tearDown() {
+        stage.close();
+    }
+}
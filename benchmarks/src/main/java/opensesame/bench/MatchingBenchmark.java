@@ -0,0 +1,52 @@
+package opensesame.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Recognising the faces of one frame: a nearest-identity lookup per face in the
+// live gallery, with prototypes, as CameraStream does after embedding.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class MatchingBenchmark {
+    @Param({"exact", "hnsw", "int8"})
+    public String matcher;
+
+    @Param({"100", "1000", "10000"})
+    public int identities;
+
+    @Param({"1", "4"})
+    public int faces;
+
+    private Stage stage;
+
+    @Setup
+    public void setUp() {
+        stage = StageFactory.load().match(matcher, identities, faces);
+    }
+
+    @Benchmark
+    public Object recognizeFaces() {
+        return stage.run();
+    }
+
+    @TearDown
+    public void tearDown() {
+        stage.close();
+    }
+}
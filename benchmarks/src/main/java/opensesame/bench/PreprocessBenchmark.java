@@ -0,0 +1,45 @@
+package opensesame.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Cropping, scaling and float conversion of every face found in a frame.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class PreprocessBenchmark {
+    @Param({"1", "4", "12"})
+    public int faces;
+
+    private Stage stage;
+
+    @Setup
+    public void setUp() {
+        stage = StageFactory.load().preprocess(faces);
+    }
+
+    @Benchmark
+    public Object preprocessFaces() {
+        return stage.run();
+    }
+
+    @TearDown
+    public void tearDown() {
+        stage.close();
+    }
+}
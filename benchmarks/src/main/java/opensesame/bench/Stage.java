@@ -0,0 +1,11 @@
+package opensesame.bench;
+
+// One step of the recognition path with its inputs already prepared, so a
+// benchmark measures run() and nothing else.
+public interface Stage extends AutoCloseable {
+    // Does the work once; the result is returned so it cannot be optimised away.
+    Object run();
+
+    @Override
+    void close();
+}
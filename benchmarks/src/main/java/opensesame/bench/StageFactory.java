@@ -0,0 +1,41 @@
+package opensesame.bench;
+
+// Builds the stages the benchmarks measure. The application classes live in
+// the unnamed package, which code in a named package cannot refer to, and JMH
+// does not accept benchmarks in the unnamed package; the implementation
+// (BenchStages, itself in the unnamed package) bridges the two.
+public interface StageFactory {
+    // Crops and scales this many faces out of one 1280x720 frame.
+    Stage preprocess(int faces);
+
+    // One batched FaceNet call on this many preprocessed faces; the stand-in
+    // graph when there is no file at modelPath.
+    Stage embed(String modelPath, int faces);
+
+    // Looks up this many faces in a gallery of identities people with
+    // SAMPLES_PER_IDENTITY enrolled embeddings each, as recognition does.
+    Stage match(String matcher, int identities, int faces);
+
+    // Opens a gallery file of identities people and builds its matcher, as at startup.
+    Stage loadGallery(String matcher, int identities);
+
+    // Finds the nearest of rows random embeddings to one query: "map" is the
+    // original HashMap + calculateDistance loop, "scalar" the flat matrix with
+    // the scalar kernel, "exact" ExactMatcher with whichever kernel is active.
+    Stage scan(String kernel, int rows);
+
+    // Copies this many preprocessed faces into a FaceNet input tensor:
+    // "per-pixel" is the original Mat.get(y, x) loop into a new tensor per call,
+    // "pooled" the bulk copy into FaceTensorPool's reused tensor.
+    Stage tensorInput(String conversion, int faces);
+
+    int SAMPLES_PER_IDENTITY = 5;
+
+    static StageFactory load() {
+        try {
+            return (StageFactory) Class.forName("BenchStages").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchStages is missing from the benchmark classpath", e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+// Typed view over opensesame.properties.
+class Config {
+    private final Properties properties;
+
+    Config(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static Config load(String path) {
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(path)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read config " + path, e);
+        }
+        return new Config(properties);
+    }
+
+    public String get(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public String require(String key) {
+        String value = get(key, null);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing required config key " + key);
+        }
+        return value;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    // Comma-separated list; empty when the key is missing.
+    public List<String> getList(String key) {
+        List<String> values = new ArrayList<>();
+        String value = get(key, null);
+        if (value != null) {
+            for (String part : value.split(",")) {
+                if (!part.isBlank()) {
+                    values.add(part.trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    public List<CameraConfig> cameras() {
+        List<CameraConfig> cameras = new ArrayList<>();
+        for (String id : getList("cameras")) {
+            cameras.add(CameraConfig.fromConfig(this, id));
+        }
+        return cameras;
+    }
+}
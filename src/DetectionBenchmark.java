@@ -0,0 +1,138 @@
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Detection rate against milliseconds per frame for downscaled and tuned
+// detectMultiScale settings on recorded footage. The reference is the original
+// full-resolution detection with OpenCV defaults; a face counts as found when a
+// detection overlaps a reference face with IoU >= 0.5 after mapping back.
+//
+// Usage: DetectionBenchmark <video file | image directory> [cascade] [maxFrames]
+public class DetectionBenchmark {
+    private static final double MATCH_IOU = 0.5;
+    private static final int DEFAULT_MAX_FRAMES = 300;
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: DetectionBenchmark <video file | image directory> [cascade] [maxFrames]");
+            return;
+        }
+        String cascadePath = args.length > 1 ? args[1] : "haarcascade_frontalface_default.xml";
+        int maxFrames = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_FRAMES;
+
+        List<Mat> frames = loadGrayFrames(args[0], maxFrames);
+        if (frames.isEmpty()) {
+            System.out.println("No frames read from " + args[0]);
+            return;
+        }
+        System.out.println(frames.size() + " frames of " + frames.get(0).cols() + "x" + frames.get(0).rows());
+
+        FaceDetector reference = new FaceDetector(cascadePath);
+        List<Rect[]> truth = new ArrayList<>();
+        double referenceMillis = time(reference, frames, truth);
+        int referenceFaces = truth.stream().mapToInt(r -> r.length).sum();
+        System.out.printf("%-58s %8.1f ms/frame  %d faces%n", "reference " + reference, referenceMillis, referenceFaces);
+
+        List<FaceDetector> candidates = Arrays.asList(
+                new FaceDetector(cascadePath, 1.1, 3, 0, 0, 0.75),
+                new FaceDetector(cascadePath, 1.1, 3, 0, 0, 0.5),
+                new FaceDetector(cascadePath, 1.1, 3, 0, 0, 0.33),
+                new FaceDetector(cascadePath, 1.2, 3, 0, 0, 1.0),
+                new FaceDetector(cascadePath, 1.2, 3, 0, 0, 0.5),
+                new FaceDetector(cascadePath, 1.1, 5, 0, 0, 0.5),
+                new FaceDetector(cascadePath, 1.1, 3, 60, 0, 0.5),
+                new FaceDetector(cascadePath, 1.2, 4, 60, 400, 0.5));
+        for (FaceDetector candidate : candidates) {
+            List<Rect[]> found = new ArrayList<>();
+            double millis = time(candidate, frames, found);
+            int matched = 0;
+            int extra = 0;
+            for (int i = 0; i < frames.size(); i++) {
+                int hits = matches(truth.get(i), found.get(i));
+                matched += hits;
+                extra += found.get(i).length - hits;
+            }
+            double rate = referenceFaces == 0 ? 1.0 : matched / (double) referenceFaces;
+            System.out.printf("%-58s %8.1f ms/frame  rate %.3f  extra %d  (%.1fx faster)%n",
+                    candidate.toString(), millis, rate, extra, referenceMillis / millis);
+        }
+
+        for (Mat frame : frames) {
+            frame.release();
+        }
+    }
+
+    // One warm-up pass, then a timed pass whose detections are collected.
+    private static double time(FaceDetector detector, List<Mat> frames, List<Rect[]> results) {
+        for (Mat frame : frames) {
+            detector.detect(frame);
+        }
+        long start = System.nanoTime();
+        for (Mat frame : frames) {
+            results.add(detector.detect(frame));
+        }
+        return (System.nanoTime() - start) / 1e6 / frames.size();
+    }
+
+    // Reference faces with a detection of IoU >= MATCH_IOU, each detection used once.
+    private static int matches(Rect[] truth, Rect[] found) {
+        boolean[] used = new boolean[found.length];
+        int matched = 0;
+        for (Rect face : truth) {
+            for (int j = 0; j < found.length; j++) {
+                if (!used[j] && FaceTracker.iou(face, found[j]) >= MATCH_IOU) {
+                    used[j] = true;
+                    matched++;
+                    break;
+                }
+            }
+        }
+        return matched;
+    }
+
+    private static List<Mat> loadGrayFrames(String source, int maxFrames) {
+        List<Mat> frames = new ArrayList<>();
+        File file = new File(source);
+        if (file.isDirectory()) {
+            File[] images = file.listFiles();
+            if (images == null) return frames;
+            Arrays.sort(images);
+            for (File image : images) {
+                if (frames.size() >= maxFrames) break;
+                Mat color = Imgcodecs.imread(image.getPath());
+                if (!color.empty()) {
+                    frames.add(toGray(color));
+                }
+                color.release();
+            }
+            return frames;
+        }
+
+        VideoCapture capture = new VideoCapture(source);
+        Mat color = new Mat();
+        while (frames.size() < maxFrames && capture.read(color) && !color.empty()) {
+            frames.add(toGray(color));
+        }
+        color.release();
+        capture.release();
+        return frames;
+    }
+
+    private static Mat toGray(Mat color) {
+        Mat gray = new Mat();
+        Imgproc.cvtColor(color, gray, Imgproc.COLOR_BGR2GRAY);
+        return gray;
+    }
+}
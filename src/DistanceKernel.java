@@ -0,0 +1,152 @@
+// Distance kernels over embeddings stored row-major in one contiguous float[]
+// (row r of a dim-wide matrix starts at r * dim). Uses the Vector API kernels
+// when the jdk.incubator.vector module is enabled, scalar code otherwise.
+// -Dopensesame.vector=false forces the scalar path.
+final class DistanceKernel {
+    // Early abandoning checks the partial sum once per block of this many dimensions
+    static final int ABANDON_BLOCK = 32;
+    static final boolean VECTORIZED = detectVectorApi();
+
+    private DistanceKernel() {
+    }
+
+    static float squaredL2(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return VECTORIZED
+                ? VectorDistanceKernel.squaredL2(a, aOffset, b, bOffset, length)
+                : scalarSquaredL2(a, aOffset, b, bOffset, length);
+    }
+
+    static float squaredL2Bounded(float[] a, int aOffset, float[] b, int bOffset, int length, float bound) {
+        return VECTORIZED
+                ? VectorDistanceKernel.squaredL2Bounded(a, aOffset, b, bOffset, length, bound)
+                : scalarSquaredL2Bounded(a, aOffset, b, bOffset, length, bound);
+    }
+
+    // Cosine distance (1 - cos) for L2-normalised embeddings such as FaceNet's.
+    static float cosineDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float dot = VECTORIZED
+                ? VectorDistanceKernel.dot(a, aOffset, b, bOffset, length)
+                : scalarDot(a, aOffset, b, bOffset, length);
+        return 1f - dot;
+    }
+
+    // Dot product of a float query with a row of int8 codes; the caller applies
+    // the row's scale. Used for the first pass over a quantised gallery.
+    static float dotInt8(float[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return VECTORIZED
+                ? VectorDistanceKernel.dotInt8(a, aOffset, b, bOffset, length)
+                : scalarDotInt8(a, aOffset, b, bOffset, length);
+    }
+
+    // Finds the k rows closest to query by squared L2 distance. Writes their
+    // indices and distances to outRows/outDistances in ascending order and
+    // returns how many were found (min(k, rows), 0 for k <= 0). Once k
+    // candidates are held, each further row is abandoned as soon as it cannot
+    // beat the k-th best.
+    static int topK(float[] query, float[] matrix, int rows, int dimension, int k,
+                    int[] outRows, float[] outDistances) {
+        if (k <= 0) {
+            return 0;
+        }
+        int found = 0;
+        float bound = Float.POSITIVE_INFINITY;
+        for (int row = 0; row < rows; row++) {
+            float distance = squaredL2Bounded(query, 0, matrix, row * dimension, dimension, bound);
+            if (found == k && distance >= bound) continue;
+
+            // Insertion into the sorted candidate list
+            int position = found < k ? found++ : k - 1;
+            while (position > 0 && outDistances[position - 1] > distance) {
+                outDistances[position] = outDistances[position - 1];
+                outRows[position] = outRows[position - 1];
+                position--;
+            }
+            outDistances[position] = distance;
+            outRows[position] = row;
+            if (found == k) {
+                bound = outDistances[k - 1];
+            }
+        }
+        return found;
+    }
+
+    static float scalarSquaredL2(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        // Four accumulators keep the loop from serialising on one add chain
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            float d0 = a[aOffset + i] - b[bOffset + i];
+            float d1 = a[aOffset + i + 1] - b[bOffset + i + 1];
+            float d2 = a[aOffset + i + 2] - b[bOffset + i + 2];
+            float d3 = a[aOffset + i + 3] - b[bOffset + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < length; i++) {
+            float d = a[aOffset + i] - b[bOffset + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static float scalarSquaredL2Bounded(float[] a, int aOffset, float[] b, int bOffset, int length, float bound) {
+        float sum = 0f;
+        int i = 0;
+        while (i < length) {
+            int blockEnd = Math.min(length, i + ABANDON_BLOCK);
+            sum += scalarSquaredL2(a, aOffset + i, b, bOffset + i, blockEnd - i);
+            if (sum > bound) {
+                return sum;
+            }
+            i = blockEnd;
+        }
+        return sum;
+    }
+
+    static float scalarDot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static float scalarDotInt8(float[] a, int aOffset, byte[] b, int bOffset, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static boolean detectVectorApi() {
+        if (!Boolean.parseBoolean(System.getProperty("opensesame.vector", "true"))) {
+            return false;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            float[] probe = {1f, 2f, 3f};
+            return VectorDistanceKernel.squaredL2(probe, 0, probe, 0, probe.length) == 0f;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sends door unlock commands off the video threads. requestUnlock() returns at
+// once; each door has its own single-threaded lane with a short queue, so a
+// slow controller delays only its own door.
+//
+// One pooled HTTP client is shared by every door. Each lane keeps its own
+// HttpClientContext, which holds the digest-auth state after the first
+// challenge: later commands answer the cached challenge up front instead of
+// taking a 401 round trip every time.
+//
+// Debounce is per door URL and atomic, so any number of cameras and workers can
+// request the same door. A command that fails after all attempts clears its
+// debounce so the next recognition can try again; a command that waited longer
+// than maxCommandAgeMillis is dropped rather than opening the door late.
+class DoorActuator implements AutoCloseable {
+    static final long DEFAULT_DEBOUNCE_MILLIS = 60_000;
+    static final int DEFAULT_TIMEOUT_MILLIS = 3000;
+    static final int DEFAULT_ATTEMPTS = 3;
+    static final long DEFAULT_MAX_COMMAND_AGE_MILLIS = 5000;
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+    private static final int LANE_QUEUE_CAPACITY = 4;
+
+    private final int attempts;
+    private final long debounceMillis;
+    private final long maxCommandAgeMillis;
+    private final BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+    private final CloseableHttpClient httpClient;
+    private final ConcurrentHashMap<String, Long> lastAccepted = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DoorLane> lanes = new ConcurrentHashMap<>();
+    private final StageStats unlockLatency = new StageStats("unlock");
+    private final LongAdder unlocked = new LongAdder();
+    private final LongAdder debounced = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private volatile boolean closed;
+
+    DoorActuator() {
+        this(DEFAULT_TIMEOUT_MILLIS, DEFAULT_ATTEMPTS, DEFAULT_DEBOUNCE_MILLIS, DEFAULT_MAX_COMMAND_AGE_MILLIS);
+    }
+
+    // timeoutMillis bounds connecting, reading and waiting for a pooled connection, per attempt.
+    DoorActuator(int timeoutMillis, int attempts, long debounceMillis, long maxCommandAgeMillis) {
+        if (timeoutMillis < 1 || attempts < 1 || debounceMillis < 0 || maxCommandAgeMillis < 1) {
+            throw new IllegalArgumentException("Invalid door actuator settings timeoutMillis=" + timeoutMillis
+                    + " attempts=" + attempts + " debounceMillis=" + debounceMillis
+                    + " maxCommandAgeMillis=" + maxCommandAgeMillis);
+        }
+        this.attempts = attempts;
+        this.debounceMillis = debounceMillis;
+        this.maxCommandAgeMillis = maxCommandAgeMillis;
+
+        Timeout timeout = Timeout.ofMilliseconds(timeoutMillis);
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                .setConnectTimeout(timeout)
+                                .setSocketTimeout(timeout)
+                                .build())
+                        .setMaxConnPerRoute(2)
+                        .setMaxConnTotal(32)
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(timeout)
+                        .setResponseTimeout(timeout)
+                        .build())
+                .setDefaultCredentialsProvider(credentials)
+                // Retries are ours: bounded by attempts and the command's age
+                .disableAutomaticRetries()
+                .build();
+    }
+
+    // Reads door.timeoutMillis, door.attempts, door.debounceSeconds and door.maxCommandAgeMillis.
+    static DoorActuator fromConfig(Config config) {
+        return new DoorActuator(
+                config.getInt("door.timeoutMillis", DEFAULT_TIMEOUT_MILLIS),
+                config.getInt("door.attempts", DEFAULT_ATTEMPTS),
+                config.getLong("door.debounceSeconds", DEFAULT_DEBOUNCE_MILLIS / 1000) * 1000,
+                config.getLong("door.maxCommandAgeMillis", DEFAULT_MAX_COMMAND_AGE_MILLIS));
+    }
+
+    // Never blocks. The future completes with true once the controller accepted
+    // the unlock, and with false if it was debounced, dropped or failed.
+    CompletableFuture<Boolean> requestUnlock(CameraConfig door, String name) {
+        if (closed) {
+            return CompletableFuture.completedFuture(false);
+        }
+        long now = System.currentTimeMillis();
+        boolean[] accepted = new boolean[1];
+        lastAccepted.compute(door.doorUrl, (url, last) -> {
+            if (last != null && now - last < debounceMillis) {
+                return last;
+            }
+            accepted[0] = true;
+            return now;
+        });
+        if (!accepted[0]) {
+            debounced.increment();
+            return CompletableFuture.completedFuture(false);
+        }
+
+        DoorLane lane = lanes.computeIfAbsent(door.doorUrl, url -> newLane(door));
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        long requestedAt = System.nanoTime();
+        try {
+            lane.executor.execute(() -> {
+                // Logged from the door's lane, not the video thread that asked
+                System.out.println("Unlocking " + door.id + " for " + name);
+                boolean ok = send(lane, door, requestedAt);
+                if (!ok) {
+                    // Let the next recognition retry instead of locking the door out for a minute
+                    lastAccepted.remove(door.doorUrl, now);
+                }
+                result.complete(ok);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            lastAccepted.remove(door.doorUrl, now);
+            result.complete(false);
+        }
+        return result;
+    }
+
+    private boolean send(DoorLane lane, CameraConfig door, long requestedAt) {
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            if (System.nanoTime() - requestedAt > TimeUnit.MILLISECONDS.toNanos(maxCommandAgeMillis)) {
+                expired.increment();
+                System.err.println("Unlock for " + door.id + " dropped after waiting too long");
+                return false;
+            }
+            if (attempt > 1) {
+                retries.increment();
+            }
+            try {
+                int status = httpClient.execute(new HttpGet(door.doorUrl), lane.context, response -> {
+                    System.out.println("Door " + door.id + " answered " + response.getCode() + " "
+                            + response.getReasonPhrase());
+                    return response.getCode();
+                });
+                if (status >= 200 && status < 300) {
+                    unlockLatency.record(requestedAt);
+                    unlocked.increment();
+                    return true;
+                }
+                // A rejected request (bad credentials, wrong URL) will not succeed on retry
+                if (status >= 400 && status < 500 && status != 408 && status != 429) {
+                    break;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to open door " + door.id + " (attempt " + attempt + "): "
+                        + e.getMessage());
+            }
+            if (attempt < attempts) {
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        failed.increment();
+        return false;
+    }
+
+    private DoorLane newLane(CameraConfig door) {
+        credentials.setCredentials(new AuthScope(door.doorHost(), door.doorPort()),
+                new UsernamePasswordCredentials(door.doorUser, door.doorPassword.toCharArray()));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(LANE_QUEUE_CAPACITY), r -> {
+            Thread t = new Thread(r, "door-" + door.id);
+            t.setDaemon(true);
+            return t;
+        });
+        return new DoorLane(executor, HttpClientContext.create());
+    }
+
+    public StageStats unlockLatency() {
+        return unlockLatency;
+    }
+
+    public long unlocked() {
+        return unlocked.sum();
+    }
+
+    public long failed() {
+        return failed.sum();
+    }
+
+    public long debounced() {
+        return debounced.sum();
+    }
+
+    // Unlock latency (request to accepted response) and what became of each request.
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.summary("opensesame_unlock_seconds", "Time from unlock request to the controller accepting it",
+                "", unlockLatency);
+        String help = "Unlock requests by outcome";
+        registry.counter("opensesame_unlock_requests_total", help, MetricsRegistry.labels("outcome", "unlocked"),
+                unlocked::sum);
+        registry.counter("opensesame_unlock_requests_total", help, MetricsRegistry.labels("outcome", "failed"),
+                failed::sum);
+        registry.counter("opensesame_unlock_requests_total", help, MetricsRegistry.labels("outcome", "expired"),
+                expired::sum);
+        registry.counter("opensesame_unlock_requests_total", help, MetricsRegistry.labels("outcome", "rejected"),
+                rejected::sum);
+        registry.counter("opensesame_unlock_requests_total", help, MetricsRegistry.labels("outcome", "debounced"),
+                debounced::sum);
+        registry.counter("opensesame_unlock_retries_total", "Unlock attempts after the first", "", retries::sum);
+    }
+
+    public String statsLine() {
+        return String.format("doors: %d unlocked, %d failed, %d expired, %d rejected, %d retries, "
+                        + "%d debounced, unlock p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                unlocked(), failed(), expired.sum(), rejected.sum(), retries.sum(), debounced(),
+                unlockLatency.percentileMillis(50), unlockLatency.percentileMillis(99), unlockLatency.maxMillis());
+    }
+
+    // Finishes queued commands for up to timeoutMillis, then closes the client.
+    @Override
+    public void close() {
+        closed = true;
+        for (DoorLane lane : lanes.values()) {
+            lane.executor.shutdown();
+        }
+        try {
+            for (DoorLane lane : lanes.values()) {
+                lane.executor.awaitTermination(maxCommandAgeMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close door client: " + e.getMessage());
+        }
+    }
+
+    // Commands for one door run in order on one thread, which is also the only
+    // user of the lane's (not thread-safe) HttpClientContext.
+    private static class DoorLane {
+        final ThreadPoolExecutor executor;
+        final HttpClientContext context;
+
+        DoorLane(ThreadPoolExecutor executor, HttpClientContext context) {
+            this.executor = executor;
+            this.context = context;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Local stand-in for the door controller's accessControl.cgi: digest auth
+// (MD5, qop=auth), a configurable response delay and failure rate. Running it
+// drives DoorActuator against the stub and reports unlock latency percentiles,
+// how many 401 challenges were needed, and whether concurrent requests for one
+// door are debounced to a single unlock.
+//
+// Usage: DoorControllerStub [unlocks] [delayMillis] [failureRate]    default: 200 20 0.05
+public class DoorControllerStub {
+    private static final String REALM = "OpenSesame";
+    private static final String PATH = "/cgi-bin/accessControl.cgi";
+
+    private final HttpServer server;
+    private final String user;
+    private final String password;
+    private final long delayMillis;
+    private final double failureRate;
+    private final String nonce = Long.toHexString(new Random().nextLong());
+    private final Random random = new Random(7);
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger challenges = new AtomicInteger();
+    final AtomicInteger unlocks = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+
+    DoorControllerStub(String user, String password, long delayMillis, double failureRate) throws IOException {
+        this.user = user;
+        this.password = password;
+        this.delayMillis = delayMillis;
+        this.failureRate = failureRate;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+    }
+
+    String unlockUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH + "?action=openDoor&channel=1";
+    }
+
+    void stop() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorized(exchange.getRequestMethod(), authorization)) {
+                challenges.incrementAndGet();
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Digest realm=\"" + REALM
+                        + "\", qop=\"auth\", nonce=\"" + nonce + "\", algorithm=MD5");
+                respond(exchange, 401, "Unauthorized");
+                return;
+            }
+            Thread.sleep(delayMillis);
+            boolean fail;
+            synchronized (random) {
+                fail = random.nextDouble() < failureRate;
+            }
+            if (fail) {
+                failures.incrementAndGet();
+                respond(exchange, 503, "Busy");
+                return;
+            }
+            unlocks.incrementAndGet();
+            respond(exchange, 200, "OK");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Checks the RFC 7616 response hash: MD5(HA1:nonce:nc:cnonce:qop:HA2).
+    private boolean authorized(String method, String header) {
+        if (!header.startsWith("Digest ")) return false;
+        Map<String, String> fields = new HashMap<>();
+        for (String part : header.substring(7).split(",\\s*")) {
+            int eq = part.indexOf('=');
+            if (eq > 0) {
+                fields.put(part.substring(0, eq).trim(), part.substring(eq + 1).replace("\"", "").trim());
+            }
+        }
+        if (!user.equals(fields.get("username")) || !nonce.equals(fields.get("nonce"))) return false;
+        String ha1 = md5(user + ":" + REALM + ":" + password);
+        String ha2 = md5(method + ":" + fields.get("uri"));
+        String expected = md5(ha1 + ":" + nonce + ":" + fields.get("nc") + ":" + fields.get("cnonce")
+                + ":" + fields.get("qop") + ":" + ha2);
+        return expected.equals(fields.get("response"));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static String md5(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int unlockCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long delayMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        double failureRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.05;
+
+        DoorControllerStub stub = new DoorControllerStub("admin", "secret", delayMillis, failureRate);
+        CameraConfig door = new CameraConfig("stub", "unused", stub.unlockUrl(), "admin", "secret",
+                new HashSet<>(List.of("Ali")));
+        try {
+            // Sequential unlocks with debounce off: latency and digest challenge reuse
+            DoorActuator actuator = new DoorActuator(DoorActuator.DEFAULT_TIMEOUT_MILLIS,
+                    DoorActuator.DEFAULT_ATTEMPTS, 0, DoorActuator.DEFAULT_MAX_COMMAND_AGE_MILLIS);
+            int accepted = 0;
+            for (int i = 0; i < unlockCount; i++) {
+                if (actuator.requestUnlock(door, "Ali").get()) {
+                    accepted++;
+                }
+            }
+            System.out.println(accepted + "/" + unlockCount + " unlocks accepted; stub saw "
+                    + stub.requests.get() + " requests, " + stub.challenges.get() + " digest challenges, "
+                    + stub.failures.get() + " injected failures");
+            System.out.println(actuator.statsLine());
+            actuator.close();
+
+            // Concurrent requests for one door from many workers: one unlock per debounce window
+            DoorActuator debounced = new DoorActuator();
+            int unlocksBefore = stub.unlocks.get();
+            int workers = 16;
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(workers);
+            List<CompletableFuture<CompletableFuture<Boolean>>> requests = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                requests.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return debounced.requestUnlock(door, "Ali");
+                }, pool));
+            }
+            start.countDown();
+            int granted = 0;
+            for (CompletableFuture<CompletableFuture<Boolean>> request : requests) {
+                boolean ok = request.get().get();
+                if (ok) granted++;
+            }
+            pool.shutdown();
+            debounced.close();
+            System.out.println(workers + " concurrent requests: " + granted + " granted, "
+                    + debounced.debounced() + " debounced, " + (stub.unlocks.get() - unlocksBefore)
+                    + " unlocks reached the controller");
+        } finally {
+            stub.stop();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.tensorflow.TensorFlow;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compares the embedding backends on the same model and faces: cold start
+// (loading the model, then the first call, with both runtimes' native
+// libraries already loaded), ms/face for single faces and batches, and faces
+// per second per core of CPU the process used. Also reports how far each
+// backend's embeddings are from the first backend's.
+//
+// Thread counts come from -Dopensesame.embedder.intraOpThreads and
+// .interOpThreads, as for the recognizers.
+//
+// Usage: EmbedderBenchmark [model] [seconds per measurement] [backends...]
+//        default: facenet_model.pb 5 tensorflow opencv
+public class EmbedderBenchmark {
+    private static final int[] BATCH_SIZES = {1, 8};
+    private static final int WARMUP_CALLS = 3;
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static void main(String[] args) {
+        String modelPath = args.length > 0 ? args[0] : "facenet_model.pb";
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+        List<String> backends = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            backends.add(args[i]);
+        }
+        if (backends.isEmpty()) {
+            backends = List.of("tensorflow", "opencv");
+        }
+        int intraOpThreads = Integer.getInteger("opensesame.embedder.intraOpThreads", 0);
+        int interOpThreads = Integer.getInteger("opensesame.embedder.interOpThreads", 0);
+        System.out.printf("%s, %d cores, intraOpThreads %d, interOpThreads %d, TensorFlow %s%n", modelPath,
+                Runtime.getRuntime().availableProcessors(), intraOpThreads, interOpThreads, TensorFlow.version());
+
+        // Prewhitened crops are roughly zero-mean, unit-variance noise to the network
+        Core.setRNGSeed(1);
+        List<Mat> faces = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZES[BATCH_SIZES.length - 1]; i++) {
+            Mat face = new Mat(FaceEmbedder.INPUT_SIZE, FaceEmbedder.INPUT_SIZE, CvType.CV_32FC3);
+            Core.randn(face, 0, 1);
+            faces.add(face);
+        }
+
+        List<float[]> reference = null;
+        for (String backend : backends) {
+            long start = System.nanoTime();
+            FaceEmbedder embedder;
+            try {
+                embedder = FaceEmbedder.create(backend, modelPath, intraOpThreads, interOpThreads);
+            } catch (RuntimeException e) {
+                System.out.printf("%-10s failed to load: %s%n", backend, e.getMessage());
+                continue;
+            }
+            try (embedder) {
+                long loaded = System.nanoTime();
+                embedder.getEmbeddings(faces.subList(0, 1));
+                long firstCall = System.nanoTime();
+                System.out.printf("%-10s cold start: load %.0f ms, first call %.0f ms%n", backend,
+                        (loaded - start) / 1e6, (firstCall - loaded) / 1e6);
+
+                for (int batchSize : BATCH_SIZES) {
+                    measure(embedder, faces.subList(0, batchSize), seconds);
+                }
+
+                List<float[]> embeddings = embedder.getEmbeddings(faces);
+                if (reference == null) {
+                    reference = embeddings;
+                } else {
+                    double maxDistance = 0;
+                    for (int i = 0; i < embeddings.size(); i++) {
+                        maxDistance = Math.max(maxDistance,
+                                ExactMatcher.calculateDistance(embeddings.get(i), reference.get(i)));
+                    }
+                    System.out.printf("%-10s max distance from %s embeddings: %.5f%n", backend,
+                            backends.get(0), maxDistance);
+                }
+            }
+        }
+        for (Mat face : faces) {
+            face.release();
+        }
+    }
+
+    private static void measure(FaceEmbedder embedder, List<Mat> batch, double seconds) {
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            embedder.getEmbeddings(batch);
+        }
+        long calls = 0;
+        long cpuStart = processCpuNanos();
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long now;
+        do {
+            embedder.getEmbeddings(batch);
+            calls++;
+            now = System.nanoTime();
+        } while (now < end);
+        double wallSeconds = (now - start) / 1e9;
+        double cpuSeconds = (processCpuNanos() - cpuStart) / 1e9;
+        long faces = calls * batch.size();
+        System.out.printf("%-10s batch %-2d %8.2f ms/face  %7.1f faces/s  %4.1f cores busy  %7.1f faces/s per core%n",
+                embedder.backend(), batch.size(), wallSeconds * 1000 / faces, faces / wallSeconds,
+                cpuSeconds / wallSeconds, faces / cpuSeconds);
+    }
+
+    // CPU time of the whole process, native inference threads included.
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}
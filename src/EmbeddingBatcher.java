@@ -0,0 +1,144 @@
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Micro-batching front end for a FaceEmbedder. Faces submitted by any number of
+// frames or cameras are grouped into one session call, up to maxBatchSize faces.
+// A batch is dispatched as soon as it is full or once the oldest face in it has
+// waited maxWaitMillis, so batching never adds more than that to the latency.
+class EmbeddingBatcher implements AutoCloseable {
+    private final FaceEmbedder embedder;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> pending = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    // Guards the check-and-enqueue in submit against close, so no face is
+    // queued once close has stopped accepting them
+    private final Object submitLock = new Object();
+    private volatile boolean running = true;
+
+    private static class Request {
+        final Mat face;
+        final CompletableFuture<float[]> result = new CompletableFuture<>();
+
+        Request(Mat face) {
+            this.face = face;
+        }
+    }
+
+    public EmbeddingBatcher(FaceEmbedder embedder, int maxBatchSize, long maxWaitMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.embedder = embedder;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.worker = new Thread(this::run, "embedding-batcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    // The face Mat must stay valid until the returned future completes.
+    public CompletableFuture<float[]> submit(Mat face) {
+        Request request = new Request(face);
+        synchronized (submitLock) {
+            if (!running) {
+                request.result.completeExceptionally(new IllegalStateException("Batcher is closed"));
+                return request.result;
+            }
+            pending.add(request);
+        }
+        return request.result;
+    }
+
+    // Submits all faces of a frame together and waits for their embeddings.
+    public List<float[]> embedAll(List<Mat> faces) {
+        List<CompletableFuture<float[]>> futures = new ArrayList<>(faces.size());
+        for (Mat face : faces) {
+            futures.add(submit(face));
+        }
+        List<float[]> embeddings = new ArrayList<>(faces.size());
+        for (CompletableFuture<float[]> future : futures) {
+            embeddings.add(future.join());
+        }
+        return embeddings;
+    }
+
+    public int pendingFaces() {
+        return pending.size();
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                Request first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    pending.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) break;
+                    Request next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                dispatch(batch);
+            } catch (InterruptedException e) {
+                for (Request request : batch) {
+                    request.result.completeExceptionally(new IllegalStateException("Batcher is closed"));
+                }
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        failPending(new IllegalStateException("Batcher is closed"));
+    }
+
+    private void dispatch(List<Request> batch) {
+        List<Mat> faces = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            faces.add(request.face);
+        }
+        try {
+            List<float[]> embeddings = embedder.getEmbeddings(faces);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(embeddings.get(i));
+            }
+        } catch (RuntimeException e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(new CompletionException(e));
+            }
+        }
+    }
+
+    private void failPending(Exception cause) {
+        Request request;
+        while ((request = pending.poll()) != null) {
+            request.result.completeExceptionally(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (submitLock) {
+            running = false;
+        }
+        worker.interrupt();
+        try {
+            worker.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failPending(new IllegalStateException("Batcher is closed"));
+    }
+}
@@ -0,0 +1,227 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Recent embeddings of one camera's face tracks, so a face standing still in
+// front of the door is not run through the network on every frame. There is
+// one entry per FaceTrack, holding the 64-bit difference hash of the track's
+// last embedded 160x160 crop (the sign of each horizontal step of a 9x8
+// grayscale thumbnail) and where the face was. Steps too small to survive
+// sensor noise are masked out of the comparison, so a lookup hits only for the
+// same track, at about the same place and size, when the clear steps of both
+// crops differ in at most maxHashDistance bits. A different person stepping
+// into the same spot starts a new track and so never gets the previous
+// person's embedding; the hash check covers a track that jumps to another face.
+//
+// Entries expire ttlMillis after they were embedded, hit or not, so a face is
+// re-embedded at least that often, and are dropped when their track ends.
+// Beyond capacity the least recently used entry is evicted. A capacity of 0
+// (the default) disables the cache.
+class EmbeddingCache {
+    static final int DEFAULT_CAPACITY = 0;
+    static final long DEFAULT_TTL_MILLIS = 1000;
+    static final int DEFAULT_MAX_HASH_DISTANCE = 3;
+    // A cached face may have moved by this fraction of its width, or changed size by this ratio
+    private static final double MAX_SHIFT = 0.15;
+    private static final double MAX_SCALE_CHANGE = 0.15;
+    // Steps smaller than this fraction of the crop's mean step are left out of the comparison
+    private static final float STEP_MARGIN = 0.5f;
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final int maxHashDistance;
+    private final Map<Integer, Entry> entries;
+    private final Mat thumbnail = new Mat();
+    private final Mat grayThumbnail = new Mat();
+    private final float[] pixels = new float[9 * 8];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    // Difference hash of a crop: bits, and which of them are clear enough to compare.
+    static final class FaceHash {
+        final long bits;
+        final long mask;
+
+        FaceHash(long bits, long mask) {
+            this.bits = bits;
+            this.mask = mask;
+        }
+
+        int distance(FaceHash other) {
+            return Long.bitCount((bits ^ other.bits) & mask & other.mask);
+        }
+    }
+
+    private static final class Entry {
+        final FaceHash hash;
+        final Rect face;
+        final float[] embedding;
+        final long createdNanos;
+
+        Entry(FaceHash hash, Rect face, float[] embedding, long createdNanos) {
+            this.hash = hash;
+            this.face = face.clone();
+            this.embedding = embedding;
+            this.createdNanos = createdNanos;
+        }
+    }
+
+    EmbeddingCache(int capacity, long ttlMillis, int maxHashDistance) {
+        if (capacity < 0 || ttlMillis < 0 || maxHashDistance < 0 || maxHashDistance > 64) {
+            throw new IllegalArgumentException("Invalid embedding cache settings capacity=" + capacity
+                    + " ttlMillis=" + ttlMillis + " maxHashDistance=" + maxHashDistance);
+        }
+        this.capacity = capacity;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxHashDistance = maxHashDistance;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > EmbeddingCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Reads <prefix>embedding.cache.size, .ttlMillis and .maxHashDistance.
+    static EmbeddingCache fromConfig(Config config, String prefix) {
+        return new EmbeddingCache(
+                config.getInt(prefix + "embedding.cache.size", DEFAULT_CAPACITY),
+                config.getLong(prefix + "embedding.cache.ttlMillis", DEFAULT_TTL_MILLIS),
+                config.getInt(prefix + "embedding.cache.maxHashDistance", DEFAULT_MAX_HASH_DISTANCE));
+    }
+
+    static EmbeddingCache disabled() {
+        return new EmbeddingCache(0, 0, 0);
+    }
+
+    boolean enabled() {
+        return capacity > 0;
+    }
+
+    // Hash of a preprocessed face crop, to pass to get() and put().
+    synchronized FaceHash hash(Mat preprocessedFace) {
+        Imgproc.resize(preprocessedFace, thumbnail, new Size(9, 8), 0, 0, Imgproc.INTER_AREA);
+        if (thumbnail.channels() == 3) {
+            Imgproc.cvtColor(thumbnail, grayThumbnail, Imgproc.COLOR_BGR2GRAY);
+        } else {
+            thumbnail.copyTo(grayThumbnail);
+        }
+        grayThumbnail.convertTo(grayThumbnail, CvType.CV_32F);
+        grayThumbnail.get(0, 0, pixels);
+        float meanStep = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                meanStep += Math.abs(pixels[y * 9 + x + 1] - pixels[y * 9 + x]);
+            }
+        }
+        float margin = STEP_MARGIN * meanStep / 64;
+        long bits = 0;
+        long mask = 0;
+        int bit = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                float step = pixels[y * 9 + x + 1] - pixels[y * 9 + x];
+                if (step > 0) {
+                    bits |= 1L << bit;
+                }
+                if (Math.abs(step) >= margin) {
+                    mask |= 1L << bit;
+                }
+                bit++;
+            }
+        }
+        return new FaceHash(bits, mask);
+    }
+
+    // The cached embedding of this track, if its face still looks like this
+    // one at about this place; otherwise null.
+    synchronized float[] get(int trackId, FaceHash hash, Rect face) {
+        if (!enabled()) return null;
+        Entry entry = entries.get(trackId);
+        if (entry != null && !live(entry, System.nanoTime())) {
+            entries.remove(trackId);
+            expirations.increment();
+            entry = null;
+        }
+        if (entry == null || !similar(entry, hash, face)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.embedding;
+    }
+
+    synchronized void put(int trackId, FaceHash hash, Rect face, float[] embedding) {
+        if (!enabled()) return;
+        entries.put(trackId, new Entry(hash, face, embedding, System.nanoTime()));
+    }
+
+    // Drops the entry of a track that has ended.
+    synchronized void remove(int trackId) {
+        entries.remove(trackId);
+    }
+
+    private boolean live(Entry entry, long now) {
+        return now - entry.createdNanos < ttlNanos;
+    }
+
+    private boolean similar(Entry entry, FaceHash hash, Rect face) {
+        if (entry.hash.distance(hash) > maxHashDistance) return false;
+        double width = entry.face.width;
+        double dx = (face.x + face.width / 2.0) - (entry.face.x + width / 2.0);
+        double dy = (face.y + face.height / 2.0) - (entry.face.y + entry.face.height / 2.0);
+        return Math.abs(dx) <= MAX_SHIFT * width && Math.abs(dy) <= MAX_SHIFT * width
+                && Math.abs(face.width / width - 1) <= MAX_SCALE_CHANGE;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    // Entries dropped to stay within capacity.
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    // Entries dropped because they outlived the TTL.
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    public double hitRate() {
+        long lookups = hits() + misses();
+        return lookups == 0 ? 0 : (double) hits() / lookups;
+    }
+
+    public String statsLine() {
+        return String.format("embedding cache: %d hits, %d misses (%.0f%% hit), %d evicted, %d expired, %d entries",
+                hits(), misses(), hitRate() * 100, evictions(), expirations(), size());
+    }
+
+    public synchronized void release() {
+        entries.clear();
+        thumbnail.release();
+        grayThumbnail.release();
+    }
+}
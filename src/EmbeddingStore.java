@@ -0,0 +1,473 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Binary face gallery, memory-mapped so opening it costs the same for one
+// person or one hundred thousand.
+//
+// Layout (little endian):
+//   header    magic, version, dimension, count, capacity, namesLength (6 ints, padded to 32 bytes)
+//   matrix    capacity x dimension float32 rows; the first count rows are in use
+//   offsets   capacity ints, byte offset of each row's name in the names region
+//   names     UTF-8 names, each prefixed with its length as an unsigned short
+//
+// Appends fill the next free row in place and bump count last, so a crash
+// never exposes a half-written row. When the matrix is full, or rows are
+// removed, the file is rewritten and atomically moved over the old one.
+//
+// Several processes may write the same store (the recognition server revoking
+// while a bulk enrolment appends). Every write holds an exclusive lock on a
+// sidecar file (face_database.bin.lock), which outlives the rewrites of the
+// store itself, and starts by re-reading the store: the header for rows other
+// processes appended, or the whole file when it has been replaced since. A
+// write therefore never drops another process's rows, nor lands in a file that
+// has already been moved aside. Readers take no lock.
+class EmbeddingStore implements AutoCloseable {
+    private static final int MAGIC = 0x4F534542; // "OSEB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int INITIAL_CAPACITY = 64;
+
+    // File locks are held per JVM, so stores in one process on the same file
+    // take turns on this before locking the file
+    private static final Map<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private FileChannel channel;
+    private Object fileKey;
+    private MappedByteBuffer mapped;
+    private int dimension;
+    private int count;
+    private int capacity;
+    private int namesLength;
+    private String[] names;
+
+    private EmbeddingStore(Path path) throws IOException {
+        this.path = path;
+        remap();
+    }
+
+    // Opens an existing store. A missing store is converted from the legacy
+    // CSV next to it (face_database.bin <- face_database.csv) when there is one,
+    // and created empty with the given dimension otherwise.
+    public static EmbeddingStore open(String path, int dimension) {
+        try {
+            Path file = Path.of(path);
+            if (!Files.exists(file)) {
+                try (WriteLock ignored = WriteLock.acquire(file)) {
+                    // Another process may have created it while this one waited
+                    if (!Files.exists(file)) {
+                        String csvPath = path.replaceFirst("\\.bin$", ".csv");
+                        if (!csvPath.equals(path) && Files.exists(Path.of(csvPath))) {
+                            System.out.println("Converting " + csvPath + " to " + path);
+                            convertCsv(readCsv(csvPath), file, csvPath);
+                        } else {
+                            writeFile(file, dimension, INITIAL_CAPACITY, new ArrayList<>(), new float[0]);
+                        }
+                    }
+                }
+            }
+            return new EmbeddingStore(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open embedding store " + path, e);
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized int dimension() {
+        return dimension;
+    }
+
+    public synchronized String name(int row) {
+        checkRow(row);
+        if (names[row] == null) {
+            int offset = mapped.getInt(offsetsStart() + row * 4);
+            int position = namesStart() + offset;
+            int length = Short.toUnsignedInt(mapped.getShort(position));
+            byte[] bytes = new byte[length];
+            mapped.get(position + 2, bytes);
+            names[row] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return names[row];
+    }
+
+    // Copies one row into dst, which must hold at least dimension floats.
+    public synchronized void vector(int row, float[] dst) {
+        checkRow(row);
+        matrixView().get(row * dimension, dst, 0, dimension);
+    }
+
+    // A read-only view of the rows currently in use, row-major.
+    public synchronized FloatBuffer matrix() {
+        FloatBuffer view = matrixView();
+        view.limit(count * dimension);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    public void append(String name, float[] embedding) {
+        List<String> rowNames = new ArrayList<>(1);
+        rowNames.add(name);
+        appendAll(rowNames, List.of(embedding));
+    }
+
+    // Appends all rows in one transaction: the new count is published only
+    // after every row and name has been written.
+    public synchronized void appendAll(List<String> rowNames, List<float[]> embeddings) {
+        if (rowNames.size() != embeddings.size()) {
+            throw new IllegalArgumentException("Got " + rowNames.size() + " names for " + embeddings.size() + " embeddings");
+        }
+        for (float[] embedding : embeddings) {
+            if (embedding.length != dimension) {
+                throw new IllegalArgumentException("Expected " + dimension + "-d embedding but got " + embedding.length);
+            }
+        }
+        if (rowNames.isEmpty()) return;
+
+        try (WriteLock ignored = WriteLock.acquire(path)) {
+            reopenIfChanged();
+            if (count + rowNames.size() > capacity) {
+                grow(count + rowNames.size());
+            }
+
+            ByteBuffer row = ByteBuffer.allocate(dimension * 4).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer offset = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            int newNamesLength = namesLength;
+            for (int i = 0; i < rowNames.size(); i++) {
+                int slot = count + i;
+                row.clear();
+                row.asFloatBuffer().put(embeddings.get(i));
+                writeFully(row, HEADER_BYTES + (long) slot * dimension * 4);
+
+                offset.clear();
+                offset.putInt(0, newNamesLength);
+                writeFully(offset, offsetsStart() + slot * 4L);
+
+                ByteBuffer encoded = encodeName(rowNames.get(i));
+                int encodedLength = encoded.remaining();
+                writeFully(encoded, namesStart() + (long) newNamesLength);
+                newNamesLength += encodedLength;
+            }
+            channel.force(false);
+
+            // Commit point: namesLength is only read for rows below count
+            ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, newNamesLength);
+            writeFully(header, 20);
+            header.putInt(0, count + rowNames.size());
+            writeFully(header, 12);
+            channel.force(false);
+
+            remap();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to embedding store " + path, e);
+        }
+    }
+
+    // One-shot conversion of the legacy "name,f1 f2 ... fn" text database.
+    public static void convertCsv(String csvPath, String storePath) {
+        Path file = Path.of(storePath);
+        try (WriteLock ignored = WriteLock.acquire(file)) {
+            convertCsv(readCsv(csvPath), file, csvPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + storePath, e);
+        }
+    }
+
+    private static Map.Entry<List<String>, List<float[]>> readCsv(String csvPath) {
+        List<String> rowNames = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvPath))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",", 2);
+                if (parts.length == 2) {
+                    String[] embeddingStr = parts[1].trim().split(" ");
+                    float[] embedding = new float[embeddingStr.length];
+                    for (int i = 0; i < embeddingStr.length; i++) {
+                        embedding[i] = Float.parseFloat(embeddingStr[i]);
+                    }
+                    rowNames.add(parts[0]);
+                    embeddings.add(embedding);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + csvPath, e);
+        }
+        if (embeddings.isEmpty()) {
+            throw new IllegalArgumentException("No embeddings found in " + csvPath);
+        }
+        return Map.entry(rowNames, embeddings);
+    }
+
+    private static void convertCsv(Map.Entry<List<String>, List<float[]>> csv, Path storePath, String csvPath)
+            throws IOException {
+        List<String> rowNames = csv.getKey();
+        List<float[]> embeddings = csv.getValue();
+        int dimension = embeddings.get(0).length;
+        float[] matrix = new float[embeddings.size() * dimension];
+        for (int i = 0; i < embeddings.size(); i++) {
+            float[] embedding = embeddings.get(i);
+            if (embedding.length != dimension) {
+                throw new IllegalArgumentException("Row " + i + " of " + csvPath + " has " + embedding.length
+                        + " values, expected " + dimension);
+            }
+            System.arraycopy(embedding, 0, matrix, i * dimension, dimension);
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(embeddings.size()) * 2);
+        writeFile(storePath, dimension, capacity, rowNames, matrix);
+    }
+
+    // Removes every row enrolled under name by rewriting the store without them.
+    // Returns the number of rows removed.
+    public synchronized int removeAll(String name) {
+        try (WriteLock ignored = WriteLock.acquire(path)) {
+            // Rewrite from the rows on disk, including any another process appended
+            reopenIfChanged();
+            List<String> keptNames = new ArrayList<>(count);
+            float[] kept = new float[count * dimension];
+            FloatBuffer rows = matrixView();
+            for (int row = 0; row < count; row++) {
+                String rowName = name(row);
+                if (rowName.equals(name)) continue;
+                rows.get(row * dimension, kept, keptNames.size() * dimension, dimension);
+                keptNames.add(rowName);
+            }
+            int removed = count - keptNames.size();
+            if (removed == 0) return 0;
+            writeFile(path, dimension, capacity, keptNames,
+                    Arrays.copyOf(kept, keptNames.size() * dimension));
+            remap();
+            return removed;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to remove " + name + " from " + path, e);
+        }
+    }
+
+    // Re-reads the store from disk, picking up rows appended or removed by
+    // another process (e.g. a separate enrolment run).
+    public synchronized void refresh() {
+        try {
+            reopenIfChanged();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to reload " + path, e);
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    private void grow(int required) throws IOException {
+        int newCapacity = capacity;
+        while (newCapacity < required) {
+            newCapacity *= 2;
+        }
+        List<String> rowNames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rowNames.add(name(i));
+        }
+        float[] matrix = new float[count * dimension];
+        matrixView().get(matrix);
+        writeFile(path, dimension, newCapacity, rowNames, matrix);
+        remap();
+    }
+
+    // Writes a complete store to a temporary file and moves it into place, so
+    // readers holding the old mapping are never affected.
+    private static void writeFile(Path file, int dimension, int capacity, List<String> rowNames, float[] matrix)
+            throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<ByteBuffer> encodedNames = new ArrayList<>(rowNames.size());
+            int namesLength = 0;
+            ByteBuffer offsets = ByteBuffer.allocate(capacity * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (String name : rowNames) {
+                ByteBuffer encoded = encodeName(name);
+                offsets.putInt(namesLength);
+                namesLength += encoded.remaining();
+                encodedNames.add(encoded);
+            }
+            offsets.clear();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(rowNames.size())
+                    .putInt(capacity).putInt(namesLength);
+            header.clear();
+            out.write(header);
+
+            ByteBuffer rows = ByteBuffer.allocate(capacity * dimension * 4).order(ByteOrder.LITTLE_ENDIAN);
+            rows.asFloatBuffer().put(matrix);
+            out.write(rows);
+            out.write(offsets);
+            for (ByteBuffer encoded : encodedNames) {
+                out.write(encoded);
+            }
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Reopens the store if another process has replaced the file since it was
+    // mapped, or grown it past the mapping with new names. Otherwise re-reads
+    // the header, since appends by other processes land in place in the mapped file.
+    private void reopenIfChanged() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Object currentKey = attributes.fileKey();
+        if (currentKey == null || !Objects.equals(currentKey, fileKey) || attributes.size() != mapped.capacity()) {
+            remap();
+            return;
+        }
+        int previousCount = count;
+        readHeader();
+        // Rows below the old count never change in place; removals rewrite the file
+        names = count >= previousCount ? Arrays.copyOf(names, count) : new String[count];
+    }
+
+    private void remap() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mapped.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not an embedding store");
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new IOException("Unsupported embedding store version " + mapped.getInt(4));
+        }
+        readHeader();
+        names = new String[count];
+    }
+
+    private void readHeader() {
+        dimension = mapped.getInt(8);
+        count = mapped.getInt(12);
+        capacity = mapped.getInt(16);
+        namesLength = mapped.getInt(20);
+    }
+
+    private FloatBuffer matrixView() {
+        ByteBuffer bytes = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        bytes.position(HEADER_BYTES);
+        bytes.limit(offsetsStart());
+        return bytes.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    private int offsetsStart() {
+        return HEADER_BYTES + capacity * dimension * 4;
+    }
+
+    private int namesStart() {
+        return offsetsStart() + capacity * 4;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= count) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + count);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static ByteBuffer encodeName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        ByteBuffer encoded = ByteBuffer.allocate(2 + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        encoded.putShort((short) bytes.length).put(bytes);
+        encoded.flip();
+        return encoded;
+    }
+
+    // Exclusive write access to the store at path, across threads of this
+    // process and across processes. Released by close().
+    private static final class WriteLock implements AutoCloseable {
+        private final ReentrantLock processLock;
+        private final FileChannel lockFile;
+
+        private WriteLock(ReentrantLock processLock, FileChannel lockFile) {
+            this.processLock = processLock;
+            this.lockFile = lockFile;
+        }
+
+        static WriteLock acquire(Path store) throws IOException {
+            Path absolute = store.toAbsolutePath().normalize();
+            ReentrantLock processLock = PROCESS_LOCKS.computeIfAbsent(absolute, p -> new ReentrantLock());
+            processLock.lock();
+            FileChannel lockFile = null;
+            try {
+                lockFile = FileChannel.open(absolute.resolveSibling(absolute.getFileName() + ".lock"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                lockFile.lock();
+                return new WriteLock(processLock, lockFile);
+            } catch (IOException | OverlappingFileLockException e) {
+                if (lockFile != null) {
+                    lockFile.close();
+                }
+                processLock.unlock();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // Closing the channel releases the file lock
+                lockFile.close();
+            } finally {
+                processLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing embedding store: " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        String csvPath = args.length > 0 ? args[0] : "face_database.csv";
+        String storePath = args.length > 1 ? args[1] : "face_database.bin";
+        convertCsv(csvPath, storePath);
+        try (EmbeddingStore store = open(storePath, FaceEmbedder.EMBEDDING_SIZE)) {
+            System.out.println("Converted " + store.size() + " embeddings from " + csvPath + " to " + storePath);
+        }
+    }
+}
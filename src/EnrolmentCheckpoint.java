@@ -0,0 +1,91 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Record of image files a bulk enrolment has already handled, so an interrupted
+// run can be restarted without embedding anything twice. One line per file:
+// absolute path, size and modification time, tab separated. A file that was
+// replaced since (different size or time) is enrolled again.
+//
+// Lines are appended only after the gallery transaction holding those files has
+// been committed; a crash in between can at worst re-enrol that one chunk.
+class EnrolmentCheckpoint implements AutoCloseable {
+    private final Set<String> done = new HashSet<>();
+    private final BufferedWriter writer;
+
+    private EnrolmentCheckpoint(BufferedWriter writer) {
+        this.writer = writer;
+    }
+
+    static EnrolmentCheckpoint open(Path path) {
+        try {
+            EnrolmentCheckpoint checkpoint = new EnrolmentCheckpoint(Files.newBufferedWriter(path,
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        checkpoint.done.add(line);
+                    }
+                }
+            }
+            return checkpoint;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open enrolment checkpoint " + path, e);
+        }
+    }
+
+    // Throws if the file cannot be read (e.g. it was deleted after being listed).
+    boolean isDone(Path file) throws IOException {
+        return done.contains(key(file));
+    }
+
+    int size() {
+        return done.size();
+    }
+
+    // Marks files as handled and flushes, so the record survives a crash right
+    // after. A file that can no longer be read is left out and reported.
+    void markDone(List<Path> files) {
+        try {
+            for (Path file : files) {
+                String key;
+                try {
+                    key = key(file);
+                } catch (IOException e) {
+                    System.out.println("Error: Could not record " + file + " in enrolment checkpoint: " + e);
+                    continue;
+                }
+                if (done.add(key)) {
+                    writer.write(key);
+                    writer.newLine();
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update enrolment checkpoint", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.out.println("Error closing enrolment checkpoint: " + e.getMessage());
+        }
+    }
+
+    private static String key(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath().normalize();
+        return absolute + "\t" + Files.size(absolute) + "\t" + Files.getLastModifiedTime(absolute).toMillis();
+    }
+}
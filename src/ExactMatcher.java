@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Linear scan over every enrolled embedding. Exact, and fast enough for small
+// galleries. Embeddings live in one contiguous row-major matrix so the scan
+// streams through memory instead of chasing a float[] per entry.
+class ExactMatcher implements FaceMatcher {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private String[] names = new String[0];
+    private float[] matrix = new float[0];
+    private int dimension = -1;
+    private int size;
+
+    @Override
+    public void add(String name, float[] embedding) {
+        lock.writeLock().lock();
+        try {
+            if (dimension < 0) {
+                dimension = embedding.length;
+            } else if (embedding.length != dimension) {
+                throw new IllegalArgumentException("Expected " + dimension + "-d embedding but got " + embedding.length);
+            }
+            if (size == names.length) {
+                int capacity = Math.max(16, size * 2);
+                names = Arrays.copyOf(names, capacity);
+                matrix = Arrays.copyOf(matrix, capacity * dimension);
+            }
+            names[size] = name;
+            System.arraycopy(embedding, 0, matrix, size * dimension, dimension);
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int remove(String name) {
+        lock.writeLock().lock();
+        try {
+            // Compact the surviving rows in place
+            int kept = 0;
+            for (int row = 0; row < size; row++) {
+                if (names[row].equals(name)) continue;
+                if (kept != row) {
+                    names[kept] = names[row];
+                    System.arraycopy(matrix, row * dimension, matrix, kept * dimension, dimension);
+                }
+                kept++;
+            }
+            int removed = size - kept;
+            Arrays.fill(names, kept, size, null);
+            size = kept;
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public FaceMatch nearest(float[] query) {
+        List<FaceMatch> matches = nearest(query, 1);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    @Override
+    public List<FaceMatch> nearest(float[] query, int k) {
+        lock.readLock().lock();
+        try {
+            int[] rows = new int[Math.max(k, 0)];
+            float[] distances = new float[rows.length];
+            int found = DistanceKernel.topK(query, matrix, size, dimension, k, rows, distances);
+            List<FaceMatch> matches = new ArrayList<>(found);
+            for (int i = 0; i < found; i++) {
+                matches.add(new FaceMatch(names[rows[i]], Math.sqrt(distances[i])));
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Heap used by the rows in the gallery: the embedding matrix and name
+    // references (the names themselves are shared with the store). Spare
+    // capacity is not counted.
+    long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) size * (dimension * Float.BYTES + 4);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The original per-entry distance, kept as the reference for benchmarks.
+    static double calculateDistance(float[] embedding1, float[] embedding2) {
+        double sum = 0.0;
+        for (int i = 0; i < embedding1.length; i++) {
+            sum += Math.pow(embedding1[i] - embedding2[i], 2);
+        }
+        return Math.sqrt(sum);
+    }
+}
@@ -1,15 +1,35 @@
 import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
 
-import java.io.*;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 public class FaceDatabaseCreator {
-    private final CascadeClassifier faceDetector;
-    private final FaceEmbedder faceEmbedder;
+    // Bulk enrolment: images decoded and detected per chunk, and one gallery transaction per chunk
+    private static final int ENROL_CHUNK_SIZE = 256;
+    private static final int ENROL_BATCH_SIZE = 32;
+    private static final List<String> IMAGE_EXTENSIONS = List.of(".jpg", ".jpeg", ".png", ".bmp");
+
+    private final String cascadePath;
     private final String databasePath;
+    private final FaceDetector faceDetector;
+    private final FacePreprocessor facePreprocessor;
+    private final FaceEmbedder faceEmbedder;
+    private final EmbeddingStore faceDatabase;
+    private final LiveGallery liveGallery;
 
     static {
         // Load OpenCV native library
@@ -17,12 +37,37 @@ public class FaceDatabaseCreator {
     }
 
     public FaceDatabaseCreator(String cascadePath, String modelPath, String databasePath) {
-        this.faceDetector = new CascadeClassifier(cascadePath);
-        this.faceEmbedder = new FaceEmbedder(modelPath);
+        this(cascadePath, modelPath, databasePath, EmbeddingStore.open(databasePath, FaceEmbedder.EMBEDDING_SIZE), null);
+    }
+
+    // Enrols into a running recognizer's gallery. Faces are written through the
+    // gallery's own store, so the file is mapped once, and each write asks the
+    // gallery to rebuild so the recognizer sees them.
+    public FaceDatabaseCreator(String cascadePath, String modelPath, LiveGallery liveGallery) {
+        this(cascadePath, modelPath, liveGallery.store().path().toString(), liveGallery.store(), liveGallery);
+    }
+
+    private FaceDatabaseCreator(String cascadePath, String modelPath, String databasePath, EmbeddingStore faceDatabase,
+                                LiveGallery liveGallery) {
+        this.liveGallery = liveGallery;
+        this.cascadePath = cascadePath;
         this.databasePath = databasePath;
+        this.faceDetector = FaceRecognition.createDetector(cascadePath);
+        // The same preprocessing as recognition, or enrolled embeddings would not match live ones
+        this.facePreprocessor = FaceRecognition.createPreprocessor();
+        this.faceEmbedder = FaceEmbedder.fromConfig(new Config(System.getProperties()), "opensesame.", modelPath);
+        this.faceDatabase = faceDatabase;
     }
 
     public void addFaceToDatabase(String imagePath, String personName) {
+        addFaceToDatabase(imagePath, personName, null);
+    }
+
+    // debugDir may be null; otherwise an annotated copy of the image is written
+    // there, as for enrollAll.
+    public void addFaceToDatabase(String imagePath, String personName, String debugDir) {
+        Path debugPath = debugDirectory(debugDir);
+
         // Read the image
         Mat image = Imgcodecs.imread(imagePath);
         if (image.empty()) {
@@ -35,41 +80,39 @@ public class FaceDatabaseCreator {
         Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
 
         // Detect faces
-        MatOfRect faces = new MatOfRect();
-        faceDetector.detectMultiScale(gray, faces);
+        Rect[] faceArray = faceDetector.detect(gray);
 
-        if (faces.toArray().length == 0) {
+        if (faceArray.length == 0) {
             System.out.println("No faces detected in the image");
             return;
         }
 
-        Rect[] faceArray = faces.toArray();
-
-        // Draw rectangles around detected faces
-        for (int i = 0; i < faceArray.length; i++) {
-            Rect rect = faceArray[i];
-
-            // Use a **different color** for the first detected face
-            Scalar color = (i == 0) ? new Scalar(255, 0, 0) : new Scalar(0, 255, 0); // Blue for first, Green for others
-            Imgproc.rectangle(image, rect.tl(), rect.br(), color, 2);
+        // Save a copy with the detected faces outlined for debugging; the first one is used
+        if (debugPath != null) {
+            Mat annotated = image.clone();
+            Path debugImagePath = debugPath.resolve(personName + "_" + Paths.get(imagePath).getFileName());
+            writeDebugImage(annotated, faceArray, faceArray[0], debugImagePath);
+            annotated.release();
+            System.out.println("Debug image saved to: " + debugImagePath);
         }
 
-        // Save the image with detected faces for debugging
-        String debugImagePath = "debug_" + imagePath;
-        Imgcodecs.imwrite(debugImagePath, image);
-        System.out.println("Debug image saved to: " + debugImagePath);
-
         if (faceArray.length > 1) {
             System.out.println("Warning: Multiple faces detected, using the first one");
         }
 
         // Process the first detected face
         Rect faceRect = faceArray[0];
-        Mat faceROI = new Mat(image, faceRect);
-        Mat processedFace = preprocessFace(faceROI);
+        MatArena arena = new MatArena();
+        Mat processedFace = facePreprocessor.preprocess(image, faceRect, arena);
+        if (processedFace == null) {
+            System.out.println("Face skipped: " + facePreprocessor.lastRejection().reason);
+            arena.release();
+            return;
+        }
 
         // Get face embedding
         float[] embedding = faceEmbedder.getEmbedding(processedFace);
+        arena.release();
 
         // Save to database
         saveToDatabase(personName, embedding);
@@ -78,47 +121,302 @@ public class FaceDatabaseCreator {
     }
 
 
-    private Mat preprocessFace(Mat face) {
-        Mat resized = new Mat();
-        Imgproc.resize(face, resized, new Size(160, 160));
+    // One image to enrol and the identity it belongs to.
+    static class EnrolmentImage {
+        final Path path;
+        final String name;
 
-        // Convert to float and normalize
-        Mat normalized = new Mat();
-        resized.convertTo(normalized, CvType.CV_32F, 1.0/255.0);
+        EnrolmentImage(Path path, String name) {
+            this.path = path;
+            this.name = name;
+        }
+    }
+
+    // The detected, preprocessed face of one image; face is null if none was
+    // found or, with rejection set, if it failed the quality checks.
+    private static class DetectedFace {
+        final EnrolmentImage image;
+        final Mat face;
+        final boolean readable;
+        final FacePreprocessor.Rejection rejection;
+
+        DetectedFace(EnrolmentImage image, Mat face, boolean readable) {
+            this(image, face, readable, null);
+        }
 
-        return normalized;
+        DetectedFace(EnrolmentImage image, Mat face, boolean readable, FacePreprocessor.Rejection rejection) {
+            this.image = image;
+            this.face = face;
+            this.readable = readable;
+            this.rejection = rejection;
+        }
     }
-    private void saveToDatabase(String name, float[] embedding) {
-        try (FileWriter fw = new FileWriter(databasePath, true);
-             BufferedWriter bw = new BufferedWriter(fw)) {
-
-            // Convert embedding array to space-separated string
-            StringBuilder embeddingStr = new StringBuilder();
-            for (int i = 0; i < embedding.length; i++) {
-                if (i > 0) {
-                    embeddingStr.append(" ");
+
+    // Enrols every image of a directory or manifest (see listImages). Decoding
+    // and detection run on `threads` workers, each with its own cascade; faces
+    // are embedded in batches and each chunk is committed to the gallery in one
+    // transaction. Files recorded in the checkpoint next to the gallery are
+    // skipped, so an interrupted run resumes where it stopped. debugDir may be
+    // null; otherwise an annotated copy of every image is written there.
+    public void enrollAll(String source, String debugDir, int threads) {
+        List<EnrolmentImage> images = listImages(Paths.get(source));
+        Path debugPath = debugDirectory(debugDir);
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ThreadLocal<FaceDetector> detectors = ThreadLocal.withInitial(() -> FaceRecognition.createDetector(cascadePath));
+        ThreadLocal<FacePreprocessor> preprocessors = ThreadLocal.withInitial(FaceRecognition::createPreprocessor);
+        long start = System.nanoTime();
+        int skipped = 0;
+        int enrolled = 0;
+        int noFace = 0;
+        int lowQuality = 0;
+        int unreadable = 0;
+        try (EnrolmentCheckpoint checkpoint = EnrolmentCheckpoint.open(Paths.get(databasePath + ".enrolled"))) {
+            List<EnrolmentImage> pending = new ArrayList<>();
+            for (EnrolmentImage image : images) {
+                try {
+                    if (checkpoint.isDone(image.path)) {
+                        skipped++;
+                    } else {
+                        pending.add(image);
+                    }
+                } catch (IOException e) {
+                    // Missing or unreadable manifest entry; the rest of the run goes on
+                    System.out.println("Error: Could not read image at " + image.path + ": " + e);
+                    unreadable++;
+                }
+            }
+            System.out.println(images.size() + " images, " + skipped + " already enrolled, "
+                    + pending.size() + " to enrol with " + threads + " threads");
+
+            for (int from = 0; from < pending.size(); from += ENROL_CHUNK_SIZE) {
+                List<EnrolmentImage> chunk = pending.subList(from, Math.min(pending.size(), from + ENROL_CHUNK_SIZE));
+                List<Future<DetectedFace>> futures = new ArrayList<>(chunk.size());
+                for (EnrolmentImage image : chunk) {
+                    futures.add(workers.submit(() -> detectForEnrolment(image, detectors.get(), preprocessors.get(), debugPath)));
                 }
-                embeddingStr.append(String.valueOf(embedding[i]));
+
+                List<String> names = new ArrayList<>();
+                List<Mat> faces = new ArrayList<>();
+                List<Path> handled = new ArrayList<>();
+                for (Future<DetectedFace> future : futures) {
+                    DetectedFace detected = future.get();
+                    handled.add(detected.image.path);
+                    if (!detected.readable) {
+                        unreadable++;
+                    } else if (detected.rejection != null) {
+                        lowQuality++;
+                    } else if (detected.face == null) {
+                        noFace++;
+                    } else {
+                        names.add(detected.image.name);
+                        faces.add(detected.face);
+                    }
+                }
+
+                List<float[]> embeddings = new ArrayList<>(faces.size());
+                for (int b = 0; b < faces.size(); b += ENROL_BATCH_SIZE) {
+                    embeddings.addAll(faceEmbedder.getEmbeddings(faces.subList(b, Math.min(faces.size(), b + ENROL_BATCH_SIZE))));
+                }
+                for (Mat face : faces) {
+                    face.release();
+                }
+
+                faceDatabase.appendAll(names, embeddings);
+                if (liveGallery != null) {
+                    liveGallery.requestReload();
+                }
+                checkpoint.markDone(handled);
+                enrolled += names.size();
+
+                int processed = from + chunk.size();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("  %d/%d images, %d faces enrolled, %.1f images/s%n",
+                        processed, pending.size(), enrolled, processed / seconds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Enrolment interrupted; rerun to resume");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Enrolment failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int processed = enrolled + noFace + lowQuality + unreadable;
+        System.out.printf("Enrolled %d faces from %d images in %.1f s (%.1f images/s); "
+                        + "%d without a face, %d with a low-quality face, %d unreadable, %d skipped from checkpoint%n",
+                enrolled, processed, seconds, processed / Math.max(seconds, 1e-9), noFace, lowQuality, unreadable,
+                skipped);
+    }
+
+    // Runs on an enrolment worker. The largest face is used, as enrolment photos
+    // may show other people in the background.
+    private DetectedFace detectForEnrolment(EnrolmentImage image, FaceDetector detector, FacePreprocessor preprocessor,
+                                            Path debugDir) {
+        Mat color = Imgcodecs.imread(image.path.toString());
+        if (color.empty()) {
+            System.out.println("Error: Could not read image at " + image.path);
+            color.release();
+            return new DetectedFace(image, null, false);
+        }
+        Mat gray = new Mat();
+        Imgproc.cvtColor(color, gray, Imgproc.COLOR_BGR2GRAY);
+        Rect[] faces = detector.detect(gray);
+        gray.release();
+
+        Rect largest = null;
+        for (Rect face : faces) {
+            if (largest == null || face.area() > largest.area()) {
+                largest = face;
+            }
+        }
+        Mat processed = null;
+        FacePreprocessor.Rejection rejection = null;
+        if (largest != null) {
+            // The face outlives the arena: it is embedded with the rest of the chunk
+            MatArena arena = new MatArena();
+            Mat face = preprocessor.preprocess(color, largest, arena);
+            if (face == null) {
+                rejection = preprocessor.lastRejection();
+                System.out.println("Skipped " + image.path + ": face " + rejection.reason);
+            } else {
+                processed = face.clone();
             }
+            arena.release();
+        }
 
-            // Write name and embedding to file
-            bw.write(name + "," + embeddingStr);
-            bw.newLine();
+        if (debugDir != null) {
+            writeDebugImage(color, faces, largest, debugDir.resolve(image.name + "_" + image.path.getFileName()));
+        }
+        color.release();
+        return new DetectedFace(image, processed, true, rejection);
+    }
 
+    // Creates debugDir if needed; null when debug images are off.
+    private static Path debugDirectory(String debugDir) {
+        if (debugDir == null) {
+            return null;
+        }
+        Path debugPath = Paths.get(debugDir);
+        try {
+            Files.createDirectories(debugPath);
         } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create debug directory " + debugPath, e);
+        }
+        return debugPath;
+    }
+
+    // Outlines every face on image, the one used in blue and the others in green, and writes it to path.
+    private static void writeDebugImage(Mat image, Rect[] faces, Rect used, Path path) {
+        for (Rect face : faces) {
+            Scalar debugColor = face == used ? new Scalar(255, 0, 0) : new Scalar(0, 255, 0);
+            Imgproc.rectangle(image, face.tl(), face.br(), debugColor, 2);
+        }
+        Imgcodecs.imwrite(path.toString(), image);
+    }
+
+    // A directory holds one subdirectory per person (the directory name is the
+    // identity) and/or images directly inside it, named after the person.
+    // Any other file is a manifest: one "image path,name" per line, paths
+    // relative to the manifest, '#' for comments.
+    static List<EnrolmentImage> listImages(Path source) {
+        List<EnrolmentImage> images = new ArrayList<>();
+        try {
+            if (Files.isDirectory(source)) {
+                try (Stream<Path> files = Files.walk(source, 2)) {
+                    files.filter(Files::isRegularFile)
+                            .filter(FaceDatabaseCreator::isImage)
+                            .sorted()
+                            .forEach(path -> {
+                                Path parent = path.getParent();
+                                String name = parent.equals(source)
+                                        ? baseName(path)
+                                        : parent.getFileName().toString();
+                                images.add(new EnrolmentImage(path, name));
+                            });
+                }
+                return images;
+            }
+
+            Path base = source.toAbsolutePath().getParent();
+            for (String line : Files.readAllLines(source, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                int comma = line.lastIndexOf(',');
+                if (comma < 0) {
+                    throw new IllegalArgumentException("Manifest line is not \"path,name\": " + line);
+                }
+                images.add(new EnrolmentImage(base.resolve(line.substring(0, comma).trim()),
+                        line.substring(comma + 1).trim()));
+            }
+            return images;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list images in " + source, e);
+        }
+    }
+
+    private static boolean isImage(Path path) {
+        String file = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return IMAGE_EXTENSIONS.stream().anyMatch(file::endsWith);
+    }
+
+    private static String baseName(Path path) {
+        String file = path.getFileName().toString();
+        int dot = file.lastIndexOf('.');
+        return dot > 0 ? file.substring(0, dot) : file;
+    }
+
+    private void saveToDatabase(String name, float[] embedding) {
+        try {
+            faceDatabase.append(name, embedding);
+            if (liveGallery != null) {
+                liveGallery.requestReload();
+            }
+        } catch (RuntimeException e) {
             System.out.println("Error writing to database: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    // FaceDatabaseCreator [--debug <dir>]                   enrol ali.jpg as Ali
+    // FaceDatabaseCreator --bulk <dir|manifest> [--debug <dir>] [--threads N]
     public static void main(String[] args) {
+        if (args.length >= 2 && args[0].equals("--bulk")) {
+            String debugDir = null;
+            int threads = Runtime.getRuntime().availableProcessors();
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                if (args[i].equals("--debug")) {
+                    debugDir = args[i + 1];
+                } else if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[i + 1]);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            FaceDatabaseCreator creator = new FaceDatabaseCreator(
+                    "haarcascade_frontalface_default.xml", "facenet_model.pb", "face_database.bin");
+            creator.enrollAll(args[1], debugDir, threads);
+            return;
+        }
+
+        String debugDir = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--debug")) {
+                debugDir = args[i + 1];
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
         // Example usage
         System.out.println(
                 "populating database....."
         );
         String cascadePath = "haarcascade_frontalface_default.xml";
         String modelPath = "facenet_model.pb";
-        String databasePath = "face_database.csv";
+        String databasePath = "face_database.bin";
 
         FaceDatabaseCreator creator = new FaceDatabaseCreator(
                 cascadePath,
@@ -131,6 +429,6 @@ public class FaceDatabaseCreator {
 //            creator.addFaceToDatabase("me"+i+".jpg", "Ali"+i);
 //
 //        }
-        creator.addFaceToDatabase("ali.jpg","Ali");
+        creator.addFaceToDatabase("ali.jpg", "Ali", debugDir);
     }
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+// Haar cascade face detection with tunable detectMultiScale parameters and an
+// optional downscaled mode. Face sizes and returned rects are in the caller's
+// full-resolution pixels; with downscale < 1 the cascade runs on a resized copy
+// and its rects are mapped back.
+//
+// scaleFactor   pyramid step between scales; larger is faster but can miss faces
+// minNeighbors  overlapping hits needed to keep a face; larger gives fewer false positives
+// minSize       smallest face searched for, in pixels (0 for no limit)
+// maxSize       largest face searched for, in pixels (0 for no limit)
+// downscale     factor the image is resized by before detection, in (0, 1]
+//
+// The defaults are OpenCV's own, i.e. what detectMultiScale(gray, faces) always used.
+// Not thread-safe: CascadeClassifier keeps per-call state, so give each thread its own.
+class FaceDetector {
+    static final double DEFAULT_SCALE_FACTOR = 1.1;
+    static final int DEFAULT_MIN_NEIGHBORS = 3;
+
+    private final CascadeClassifier cascade;
+    private final double scaleFactor;
+    private final int minNeighbors;
+    private final int minSize;
+    private final int maxSize;
+    private final double downscale;
+    private final Mat scaled = new Mat();
+    private final MatOfRect faces = new MatOfRect();
+
+    FaceDetector(String cascadePath) {
+        this(cascadePath, DEFAULT_SCALE_FACTOR, DEFAULT_MIN_NEIGHBORS, 0, 0, 1.0);
+    }
+
+    FaceDetector(String cascadePath, double scaleFactor, int minNeighbors, int minSize, int maxSize,
+                 double downscale) {
+        if (scaleFactor <= 1.0 || minNeighbors < 0 || minSize < 0 || maxSize < 0
+                || downscale <= 0 || downscale > 1) {
+            throw new IllegalArgumentException("Invalid detection parameters scaleFactor=" + scaleFactor
+                    + " minNeighbors=" + minNeighbors + " minSize=" + minSize + " maxSize=" + maxSize
+                    + " downscale=" + downscale);
+        }
+        this.cascade = new CascadeClassifier(cascadePath);
+        if (cascade.empty()) {
+            throw new IllegalArgumentException("Could not load face cascade " + cascadePath);
+        }
+        this.scaleFactor = scaleFactor;
+        this.minNeighbors = minNeighbors;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.downscale = downscale;
+    }
+
+    // Reads <prefix>scaleFactor, minNeighbors, minSize, maxSize and downscale.
+    static FaceDetector fromConfig(Config config, String prefix, String cascadePath) {
+        return new FaceDetector(cascadePath,
+                config.getDouble(prefix + "scaleFactor", DEFAULT_SCALE_FACTOR),
+                config.getInt(prefix + "minNeighbors", DEFAULT_MIN_NEIGHBORS),
+                config.getInt(prefix + "minSize", 0),
+                config.getInt(prefix + "maxSize", 0),
+                config.getDouble(prefix + "downscale", 1.0));
+    }
+
+    Rect[] detect(Mat gray) {
+        return detect(gray, null, 1.0);
+    }
+
+    // Detects inside region of gray (in gray's pixels, null for the whole image).
+    // gray may be a lower-resolution copy of the frame the caller crops from,
+    // e.g. the RTSP substream: toFrame is the frame-to-gray width ratio, and the
+    // returned rects and configured face sizes are in frame pixels.
+    Rect[] detect(Mat gray, Rect region, double toFrame) {
+        Mat view = region == null ? gray : gray.submat(region);
+        double scale = downscale;
+        Mat input = view;
+        if (scale < 1.0) {
+            Imgproc.resize(view, scaled, new Size(), scale, scale, Imgproc.INTER_AREA);
+            input = scaled;
+        }
+
+        // Face size limits are in frame pixels; the cascade sees them shrunk by both ratios
+        double sizeScale = scale / toFrame;
+        Size min = minSize > 0 ? squareSize(minSize * sizeScale) : new Size();
+        Size max = maxSize > 0 ? squareSize(maxSize * sizeScale) : new Size();
+
+        cascade.detectMultiScale(input, faces, scaleFactor, minNeighbors, 0, min, max);
+        Rect[] found = faces.toArray();
+        if (view != gray) {
+            view.release();
+        }
+
+        int offsetX = region == null ? 0 : region.x;
+        int offsetY = region == null ? 0 : region.y;
+        double toFull = toFrame / scale;
+        for (int i = 0; i < found.length; i++) {
+            Rect face = found[i];
+            found[i] = new Rect(
+                    (int) Math.round((face.x / scale + offsetX) * toFrame),
+                    (int) Math.round((face.y / scale + offsetY) * toFrame),
+                    (int) Math.round(face.width * toFull),
+                    (int) Math.round(face.height * toFull));
+        }
+        return found;
+    }
+
+    // Clamps rect to a width x height frame, for crops mapped up from a smaller image.
+    static Rect clamp(Rect rect, int width, int height) {
+        int x = Math.max(0, Math.min(rect.x, width - 1));
+        int y = Math.max(0, Math.min(rect.y, height - 1));
+        int right = Math.min(width, rect.x + rect.width);
+        int bottom = Math.min(height, rect.y + rect.height);
+        return new Rect(x, y, Math.max(1, right - x), Math.max(1, bottom - y));
+    }
+
+    void release() {
+        scaled.release();
+        faces.release();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("scaleFactor=%.2f minNeighbors=%d minSize=%d maxSize=%d downscale=%.2f",
+                scaleFactor, minNeighbors, minSize, maxSize, downscale);
+    }
+
+    private static Size squareSize(double side) {
+        int pixels = Math.max(1, (int) Math.round(side));
+        return new Size(pixels, pixels);
+    }
+}
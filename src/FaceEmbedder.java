@@ -0,0 +1,71 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.List;
+
+// Turns preprocessed 160x160 CV_32FC3 face crops into 128-d FaceNet embeddings.
+// Two CPU backends run the same frozen graph: "tensorflow" in a TensorFlow
+// session and "opencv" in OpenCV's DNN module. EmbedderBenchmark compares them.
+interface FaceEmbedder extends AutoCloseable {
+    int INPUT_SIZE = 160;
+    int CHANNELS = 3;
+    int EMBEDDING_SIZE = 128;
+    String DEFAULT_BACKEND = "tensorflow";
+
+    // Embeds every face in one network call. Safe to call from several threads;
+    // implementations serialise the calls.
+    List<float[]> getEmbeddings(List<Mat> faces);
+
+    default float[] getEmbedding(Mat face) {
+        return getEmbeddings(List.of(face)).get(0);
+    }
+
+    String backend();
+
+    // Runs a blank face through the network, so graph initialisation and the
+    // first allocations happen at startup instead of for the first visitor.
+    default void warmUp() {
+        Mat blank = Mat.zeros(INPUT_SIZE, INPUT_SIZE, CvType.CV_32FC3);
+        try {
+            getEmbeddings(List.of(blank));
+        } finally {
+            blank.release();
+        }
+    }
+
+    @Override
+    void close();
+
+    // Thread counts <= 0 keep the backend's default. OpenCV has a single
+    // process-wide thread pool, which intraOpThreads then sizes.
+    static FaceEmbedder create(String backend, String modelPath, int intraOpThreads, int interOpThreads) {
+        switch (backend) {
+            case "tensorflow":
+                return new TensorFlowEmbedder(modelPath, intraOpThreads, interOpThreads);
+            case "opencv":
+                return new OpenCvDnnEmbedder(modelPath, intraOpThreads);
+            default:
+                throw new IllegalArgumentException("Unknown embedder backend: " + backend);
+        }
+    }
+
+    // Reads <prefix>embedder.backend, .intraOpThreads, .interOpThreads and
+    // .warmUp (on unless set to false), and reports how long loading and
+    // warming up took.
+    static FaceEmbedder fromConfig(Config config, String prefix, String modelPath) {
+        String backend = config.get(prefix + "embedder.backend", DEFAULT_BACKEND);
+        long start = System.nanoTime();
+        FaceEmbedder embedder = create(backend, modelPath,
+                config.getInt(prefix + "embedder.intraOpThreads", 0),
+                config.getInt(prefix + "embedder.interOpThreads", 0));
+        long loaded = System.nanoTime();
+        if (config.getBoolean(prefix + "embedder.warmUp", true)) {
+            embedder.warmUp();
+            System.out.printf("Loaded %s embedder in %.0f ms, warm-up %.0f ms%n", backend,
+                    (loaded - start) / 1e6, (System.nanoTime() - loaded) / 1e6);
+        } else {
+            System.out.printf("Loaded %s embedder in %.0f ms%n", backend, (loaded - start) / 1e6);
+        }
+        return embedder;
+    }
+}
@@ -0,0 +1,15 @@
+import org.opencv.core.Rect;
+
+// What a recognised face looks like on screen: its box and caption. Recorded
+// by the recognition stage and only drawn by whatever shows the frame.
+class FaceLabel {
+    final Rect rect;
+    final String text;
+    final boolean known;
+
+    FaceLabel(Rect rect, String text, boolean known) {
+        this.rect = rect;
+        this.text = text;
+        this.known = known;
+    }
+}
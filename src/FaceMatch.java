@@ -0,0 +1,18 @@
+// Closest gallery entry for a query embedding.
+class FaceMatch {
+    // Histogram buckets for match distances; unit-length embeddings are at most 2 apart
+    static final double[] DISTANCE_BUCKETS = {0.1, 0.2, 0.25, 0.3, 0.4, 0.5, 0.6, 0.8, 1.0, 1.2, 1.5, 2.0};
+
+    final String name;
+    final double distance;
+
+    FaceMatch(String name, double distance) {
+        this.name = name;
+        this.distance = distance;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%.4f)", name, distance);
+    }
+}
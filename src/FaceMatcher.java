@@ -0,0 +1,68 @@
+import java.util.List;
+import java.util.Properties;
+
+// Finds the closest enrolled embedding to a query. Implementations must allow
+// add to be called while other threads are matching.
+interface FaceMatcher {
+    void add(String name, float[] embedding);
+
+    // Removes every entry enrolled under name and returns how many there were.
+    int remove(String name);
+
+    // Closest entry by Euclidean distance, or null when the gallery is empty.
+    FaceMatch nearest(float[] query);
+
+    // Up to k closest entries, closest first.
+    List<FaceMatch> nearest(float[] query, int k);
+
+    int size();
+
+    default void addAll(EmbeddingStore store) {
+        float[] embedding = new float[store.dimension()];
+        for (int row = 0; row < store.size(); row++) {
+            store.vector(row, embedding);
+            add(store.name(row), embedding.clone());
+        }
+    }
+
+    static FaceMatcher fromStore(EmbeddingStore store, String kind) {
+        return fromStore(store, kind, PrototypeMatcher.DEFAULT_PROTOTYPES);
+    }
+
+    static FaceMatcher fromStore(EmbeddingStore store, String kind, int prototypes) {
+        return fromStore(store, kind, prototypes, new Config(new Properties()), "");
+    }
+
+    // prototypes > 0 matches each identity through that many prototypes
+    // (PrototypeMatcher); 0 matches against every enrolled sample. Index
+    // settings are read from config under prefix, as for create.
+    static FaceMatcher fromStore(EmbeddingStore store, String kind, int prototypes, Config config, String prefix) {
+        FaceMatcher index = create(kind, config, prefix);
+        FaceMatcher matcher = prototypes > 0 ? new PrototypeMatcher(index, store, prototypes) : index;
+        matcher.addAll(store);
+        return matcher;
+    }
+
+    static FaceMatcher create(String kind) {
+        return create(kind, new Config(new Properties()), "");
+    }
+
+    // "exact" for a linear scan, "hnsw" for the approximate graph index, "int8"
+    // for a scan over int8 codes re-ranked with floats, "int8-codes" for the
+    // codes alone (a quarter of the memory, approximate distances). The graph
+    // index reads <prefix>hnsw.m, .efConstruction and .efSearch from config.
+    static FaceMatcher create(String kind, Config config, String prefix) {
+        switch (kind) {
+            case "exact":
+                return new ExactMatcher();
+            case "hnsw":
+                return HnswMatcher.fromConfig(config, prefix + "hnsw.");
+            case "int8":
+                return new QuantizedMatcher(QuantizedMatcher.DEFAULT_RERANK);
+            case "int8-codes":
+                return new QuantizedMatcher(0);
+            default:
+                throw new IllegalArgumentException("Unknown matcher: " + kind);
+        }
+    }
+}
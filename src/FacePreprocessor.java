@@ -0,0 +1,319 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Turns a detected face into the network's input, or skips it when it is not
+// worth an inference. Every check is cheap next to the network:
+//
+//   size       the detection's width in frame pixels (minSize)
+//   sharpness  variance of the Laplacian of a 64x64 grey thumbnail (minSharpness);
+//              blur flattens the edges it measures, whatever the face's size
+//   pose       with the eye cascade, both eyes must be found in the upper part of
+//              the face, the line between them tilted at most maxRoll degrees and
+//              its midpoint at most maxYaw face widths off centre; a turned head
+//              moves its eyes sideways or hides one
+//
+// A face that passes is cropped, rotated so the eyes are level when align is on
+// and the eyes were found, scaled to 160x160, put in the model's channel order
+// and normalised:
+//   unit       x / 255 (the original preprocessing)
+//   fixed      (x - 127.5) / 128, FaceNet's fixed image standardisation
+//   prewhiten  (x - mean) / std over the crop, FaceNet's prewhiten
+//
+// The defaults reproduce the original preprocessing and skip nothing. Colour
+// order, normalisation and alignment change every embedding, so the gallery has
+// to be enrolled again after changing them; the quality checks do not.
+//
+// Not thread-safe: like FaceDetector, each camera or enrolment worker has its own.
+final class FacePreprocessor {
+    static final String DEFAULT_NORMALIZATION = "unit";
+    // Thumbnail side for the sharpness score, and face width the eyes are searched at
+    private static final int SHARPNESS_SIZE = 64;
+    private static final int EYE_SEARCH_WIDTH = 96;
+    // Eyes lie in this band of a Haar face box, and are 1/8 to 0.3 of its width
+    private static final double EYE_REGION_TOP = 0.15;
+    private static final double EYE_REGION_BOTTOM = 0.6;
+    private static final double MIN_EYE = 1 / 8.0;
+    private static final double MAX_EYE = 0.3;
+
+    // Why a face was skipped.
+    enum Rejection {
+        SMALL("too small"), BLURRY("blurry"), POSE("not frontal");
+
+        final String reason;
+
+        Rejection(String reason) {
+            this.reason = reason;
+        }
+    }
+
+    private final boolean rgb;
+    private final String normalization;
+    private final boolean align;
+    private final int minSize;
+    private final double minSharpness;
+    private final double maxYaw;
+    private final double maxRoll;
+    private final CascadeClassifier eyeCascade;
+    private final MatOfRect eyes = new MatOfRect();
+    private final MatOfDouble mean = new MatOfDouble();
+    private final MatOfDouble stdDev = new MatOfDouble();
+    private final LongAdder[] skipped = new LongAdder[Rejection.values().length];
+    private Rejection lastRejection;
+
+    // The original preprocessing: BGR, x / 255, no alignment and no quality checks.
+    FacePreprocessor() {
+        this(false, DEFAULT_NORMALIZATION, null, false, 0, 0, 0, 0);
+    }
+
+    // eyeCascadePath may be null unless align is on or maxYaw or maxRoll is set;
+    // a limit of 0 turns its check off.
+    FacePreprocessor(boolean rgb, String normalization, String eyeCascadePath, boolean align,
+                     int minSize, double minSharpness, double maxYaw, double maxRoll) {
+        if (!normalization.equals("unit") && !normalization.equals("fixed") && !normalization.equals("prewhiten")) {
+            throw new IllegalArgumentException("Unknown normalization: " + normalization);
+        }
+        if (minSize < 0 || minSharpness < 0 || maxYaw < 0 || maxRoll < 0) {
+            throw new IllegalArgumentException("Invalid face quality limits minSize=" + minSize
+                    + " minSharpness=" + minSharpness + " maxYaw=" + maxYaw + " maxRoll=" + maxRoll);
+        }
+        this.rgb = rgb;
+        this.normalization = normalization;
+        this.align = align;
+        this.minSize = minSize;
+        this.minSharpness = minSharpness;
+        this.maxYaw = maxYaw;
+        this.maxRoll = maxRoll;
+        if (align || maxYaw > 0 || maxRoll > 0) {
+            if (eyeCascadePath == null) {
+                throw new IllegalArgumentException("Face alignment and pose checks need an eye cascade");
+            }
+            this.eyeCascade = new CascadeClassifier(eyeCascadePath);
+            if (eyeCascade.empty()) {
+                throw new IllegalArgumentException("Could not load eye cascade " + eyeCascadePath);
+            }
+        } else {
+            this.eyeCascade = null;
+        }
+        for (int i = 0; i < skipped.length; i++) {
+            skipped[i] = new LongAdder();
+        }
+    }
+
+    // Reads <prefix>color (bgr or rgb), normalization, eyeCascade, align,
+    // quality.minSize, quality.minSharpness, quality.maxYaw and quality.maxRoll.
+    static FacePreprocessor fromConfig(Config config, String prefix) {
+        String color = config.get(prefix + "color", "bgr");
+        if (!color.equals("bgr") && !color.equals("rgb")) {
+            throw new IllegalArgumentException("Unknown face color order: " + color);
+        }
+        return new FacePreprocessor(color.equals("rgb"),
+                config.get(prefix + "normalization", DEFAULT_NORMALIZATION),
+                config.get(prefix + "eyeCascade", "haarcascade_eye.xml"),
+                config.getBoolean(prefix + "align", false),
+                config.getInt(prefix + "quality.minSize", 0),
+                config.getDouble(prefix + "quality.minSharpness", 0),
+                config.getDouble(prefix + "quality.maxYaw", 0),
+                config.getDouble(prefix + "quality.maxRoll", 0));
+    }
+
+    // Crops, checks and scales a face into arena Mats, valid until the arena is
+    // reset. Returns null when the face fails a quality check; lastRejection()
+    // then says which.
+    Mat preprocess(Mat frame, Rect face, MatArena arena) {
+        lastRejection = null;
+        if (face.width < minSize) {
+            return reject(Rejection.SMALL);
+        }
+
+        Mat gray = null;
+        if (minSharpness > 0 || eyeCascade != null) {
+            Mat faceROI = frame.submat(face);
+            gray = arena.next();
+            Imgproc.cvtColor(faceROI, gray, Imgproc.COLOR_BGR2GRAY);
+            faceROI.release();
+        }
+        if (minSharpness > 0 && sharpness(gray, arena) < minSharpness) {
+            return reject(Rejection.BLURRY);
+        }
+
+        double roll = 0;
+        if (eyeCascade != null) {
+            Point[] eyeCenters = findEyes(gray, arena);
+            if (eyeCenters == null) {
+                if (maxYaw > 0 || maxRoll > 0) {
+                    return reject(Rejection.POSE);
+                }
+            } else {
+                double dx = eyeCenters[1].x - eyeCenters[0].x;
+                double dy = eyeCenters[1].y - eyeCenters[0].y;
+                roll = Math.toDegrees(Math.atan2(dy, dx));
+                double yaw = Math.abs((eyeCenters[0].x + eyeCenters[1].x) / 2 - gray.cols() / 2.0) / gray.cols();
+                if ((maxRoll > 0 && Math.abs(roll) > maxRoll) || (maxYaw > 0 && yaw > maxYaw)) {
+                    return reject(Rejection.POSE);
+                }
+            }
+        }
+
+        Mat resized = arena.next();
+        if (align && roll != 0) {
+            alignFace(frame, face, roll, resized);
+        } else {
+            Mat faceROI = frame.submat(face);
+            Imgproc.resize(faceROI, resized, new Size(FaceEmbedder.INPUT_SIZE, FaceEmbedder.INPUT_SIZE));
+            faceROI.release();
+        }
+        if (rgb) {
+            Imgproc.cvtColor(resized, resized, Imgproc.COLOR_BGR2RGB);
+        }
+
+        Mat normalized = arena.next();
+        normalize(resized, normalized);
+        return normalized;
+    }
+
+    Rejection lastRejection() {
+        return lastRejection;
+    }
+
+    // Faces skipped for the given reason so far.
+    long skipped(Rejection rejection) {
+        return skipped[rejection.ordinal()].sum();
+    }
+
+    long skipped() {
+        long total = 0;
+        for (LongAdder count : skipped) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    boolean checksQuality() {
+        return minSize > 0 || minSharpness > 0 || maxYaw > 0 || maxRoll > 0;
+    }
+
+    String statsLine() {
+        return String.format("face quality: %d skipped (%d too small, %d blurry, %d not frontal)", skipped(),
+                skipped(Rejection.SMALL), skipped(Rejection.BLURRY), skipped(Rejection.POSE));
+    }
+
+    void release() {
+        eyes.release();
+        mean.release();
+        stdDev.release();
+    }
+
+    private Mat reject(Rejection rejection) {
+        lastRejection = rejection;
+        skipped[rejection.ordinal()].increment();
+        return null;
+    }
+
+    private double sharpness(Mat gray, MatArena arena) {
+        Mat thumbnail = arena.next();
+        Imgproc.resize(gray, thumbnail, new Size(SHARPNESS_SIZE, SHARPNESS_SIZE), 0, 0, Imgproc.INTER_AREA);
+        Mat laplacian = arena.next();
+        Imgproc.Laplacian(thumbnail, laplacian, CvType.CV_32F);
+        Core.meanStdDev(laplacian, mean, stdDev);
+        double deviation = stdDev.get(0, 0)[0];
+        return deviation * deviation;
+    }
+
+    // Centres of the left and right eye in gray's pixels, or null unless one eye
+    // was found in each half of the face. Searched at a fixed face width, so the
+    // cost does not grow with the face.
+    private Point[] findEyes(Mat gray, MatArena arena) {
+        double scale = EYE_SEARCH_WIDTH / (double) gray.cols();
+        Mat search = arena.next();
+        Imgproc.resize(gray, search, new Size(), scale, scale, Imgproc.INTER_AREA);
+        int top = (int) (search.rows() * EYE_REGION_TOP);
+        Mat band = search.submat(top, (int) (search.rows() * EYE_REGION_BOTTOM), 0, search.cols());
+        double minEye = EYE_SEARCH_WIDTH * MIN_EYE;
+        double maxEye = EYE_SEARCH_WIDTH * MAX_EYE;
+        eyeCascade.detectMultiScale(band, eyes, 1.1, 3, 0, new Size(minEye, minEye), new Size(maxEye, maxEye));
+        band.release();
+
+        // The largest detection on each side of the face
+        Rect left = null;
+        Rect right = null;
+        for (Rect eye : eyes.toArray()) {
+            boolean onLeft = eye.x + eye.width / 2.0 < search.cols() / 2.0;
+            Rect current = onLeft ? left : right;
+            if (current == null || eye.area() > current.area()) {
+                if (onLeft) {
+                    left = eye;
+                } else {
+                    right = eye;
+                }
+            }
+        }
+        if (left == null || right == null) {
+            return null;
+        }
+        return new Point[] {
+                new Point((left.x + left.width / 2.0) / scale, (top + left.y + left.height / 2.0) / scale),
+                new Point((right.x + right.width / 2.0) / scale, (top + right.y + right.height / 2.0) / scale)};
+    }
+
+    // Samples the face box rotated by roll degrees about its centre straight into
+    // the 160x160 input, so the eyes come out level. The map is given from output
+    // to frame pixels, with the same pixel-centre convention as resize.
+    private static void alignFace(Mat frame, Rect face, double roll, Mat dst) {
+        double angle = Math.toRadians(roll);
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double scaleX = face.width / (double) FaceEmbedder.INPUT_SIZE;
+        double scaleY = face.height / (double) FaceEmbedder.INPUT_SIZE;
+        double centerX = face.x + face.width / 2.0;
+        double centerY = face.y + face.height / 2.0;
+        double offsetX = 0.5 * scaleX - face.width / 2.0;
+        double offsetY = 0.5 * scaleY - face.height / 2.0;
+
+        Mat map = new Mat(2, 3, CvType.CV_64F);
+        map.put(0, 0,
+                cos * scaleX, -sin * scaleY, centerX - 0.5 + cos * offsetX - sin * offsetY,
+                sin * scaleX, cos * scaleY, centerY - 0.5 + sin * offsetX + cos * offsetY);
+        Imgproc.warpAffine(frame, dst, map, new Size(FaceEmbedder.INPUT_SIZE, FaceEmbedder.INPUT_SIZE),
+                Imgproc.INTER_LINEAR | Imgproc.WARP_INVERSE_MAP, Core.BORDER_REPLICATE);
+        map.release();
+    }
+
+    private void normalize(Mat face, Mat dst) {
+        switch (normalization) {
+            case "fixed":
+                face.convertTo(dst, CvType.CV_32F, 1.0 / 128.0, -127.5 / 128.0);
+                break;
+            case "prewhiten": {
+                // Mean and standard deviation over every value of the crop, as
+                // FaceNet's prewhiten computes them, from the per-channel statistics
+                Core.meanStdDev(face, mean, stdDev);
+                double[] means = mean.toArray();
+                double[] deviations = stdDev.toArray();
+                double overallMean = 0;
+                for (double channelMean : means) {
+                    overallMean += channelMean / means.length;
+                }
+                double variance = 0;
+                for (int c = 0; c < means.length; c++) {
+                    double offset = means[c] - overallMean;
+                    variance += (deviations[c] * deviations[c] + offset * offset) / means.length;
+                }
+                double std = Math.max(Math.sqrt(variance), 1.0 / Math.sqrt(face.total() * face.channels()));
+                face.convertTo(dst, CvType.CV_32F, 1.0 / std, -overallMean / std);
+                break;
+            }
+            default:
+                face.convertTo(dst, CvType.CV_32F, 1.0 / 255.0);
+        }
+    }
+}
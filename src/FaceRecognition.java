@@ -1,20 +1,33 @@
 import org.opencv.core.*;
 import org.opencv.highgui.HighGui;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
 import org.opencv.videoio.VideoCapture;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 public class FaceRecognition {
-    private final CascadeClassifier faceDetector;
+    private final FaceDetector faceDetector;
+    private final FacePreprocessor facePreprocessor;
     private final FaceEmbedder faceEmbedder;
-    private final Map<String, float[]> faceDatabase;
+    private final EmbeddingCache embeddingCache;
+    // Only follows faces across frames for the embedding cache, whose entries belong to a track
+    private final FaceTracker faceTracker = new FaceTracker(CameraStream.TRACK_MIN_IOU,
+            CameraStream.TRACK_MAX_MISSED_FRAMES, 1, 0, 0);
+    // Per-frame scratch, reused so the video loop allocates no pixel buffers
+    private final Mat gray = new Mat();
+    private final MatArena faceArena = new MatArena();
+    // Preview frames are copies, since the capture Mat is reused; at most one queued and one encoding
+    private final FramePool previewPool = new FramePool(2);
+    private List<FaceLabel> labels = List.of();
+    private long frameSequence;
+    private final FaceMatcher faceMatcher;
+    private final StageStats frameStats = new StageStats("frame");
+    private final Histogram facesPerFrame = new Histogram(CameraStream.FACES_PER_FRAME_BUCKETS);
+    private final Histogram matchDistances = new Histogram(FaceMatch.DISTANCE_BUCKETS);
     private static final double RECOGNITION_THRESHOLD = 0.25;
+    static final long GALLERY_POLL_MILLIS = 2000;
 
     static {
         // Load OpenCV native library
@@ -22,116 +35,203 @@ public class FaceRecognition {
     }
 
     public FaceRecognition(String cascadePath, String modelPath, String databasePath) {
-        this.faceDetector = new CascadeClassifier(cascadePath);
-        this.faceEmbedder = new FaceEmbedder(modelPath);
-        this.faceDatabase = loadFaceDatabase(databasePath);
+        this.faceDetector = createDetector(cascadePath);
+        this.facePreprocessor = createPreprocessor();
+        this.faceEmbedder = FaceEmbedder.fromConfig(new Config(System.getProperties()), "opensesame.", modelPath);
+        // -Dopensesame.embedding.cache.size, .ttlMillis and .maxHashDistance; size 0 disables it
+        this.embeddingCache = EmbeddingCache.fromConfig(new Config(System.getProperties()), "opensesame.");
+        this.faceMatcher = createMatcher(loadFaceDatabase(databasePath));
     }
 
     public void startVideoRecognition() {
+        startVideoRecognition(true);
+    }
+
+    // Without display nothing is drawn or shown. -Dopensesame.preview.port serves
+    // an MJPEG preview instead, and -Dopensesame.metrics.port frame latency, faces
+    // per frame and match distances.
+    public void startVideoRecognition(boolean display) {
         VideoCapture capture = new VideoCapture(0);
         if (!capture.isOpened()) {
             System.out.println("Error: Cannot open camera");
             return;
         }
+        MetricsRegistry metrics = new MetricsRegistry();
+        registerMetrics(metrics);
+        MetricsServer metricsServer = MetricsServer.start(metrics, Integer.getInteger("opensesame.metrics.port", 0));
+        PreviewServer previewServer = PreviewServer.fromConfig(new Config(System.getProperties()), "opensesame.");
+        PreviewChannel preview = previewServer == null ? null : previewServer.channel("local");
 
         Mat frame = new Mat();
         while (true) {
             capture.read(frame);
             if (frame.empty()) break;
 
+            long start = System.nanoTime();
             processFrame(frame);
+            frameStats.record(start);
+
+            // The preview gets an undrawn copy with the labels, drawn on its own thread
+            if (preview != null && preview.wantsFrame()) {
+                Mat copy = previewPool.take();
+                frame.copyTo(copy);
+                PipelineFrame previewFrame = new PipelineFrame(frameSequence, copy, previewPool);
+                previewFrame.labels = labels;
+                preview.offer(previewFrame);
+            }
+            frameSequence++;
 
             // Display the frame
-            HighGui.imshow("Face Recognition", frame);
-            if (HighGui.waitKey(1) >= 0) break;
+            if (display) {
+                PipelineFrame shown = new PipelineFrame(frameSequence, frame);
+                shown.labels = labels;
+                shown.drawLabels();
+                HighGui.imshow("Face Recognition", frame);
+                if (HighGui.waitKey(1) >= 0) break;
+            }
         }
 
+        if (previewServer != null) {
+            previewServer.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
         capture.release();
-        HighGui.destroyAllWindows();
+        frame.release();
+        gray.release();
+        faceArena.release();
+        facePreprocessor.release();
+        if (display) {
+            HighGui.destroyAllWindows();
+        }
     }
 
     private void processFrame(Mat frame) {
+        labels = List.of();
+        try {
+            recognizeFaces(frame);
+        } finally {
+            faceArena.reset();
+        }
+    }
+
+    private void recognizeFaces(Mat frame) {
         // Convert to grayscale for face detection
-        Mat gray = new Mat();
         Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
 
         // Detect faces
-        MatOfRect faces = new MatOfRect();
-        faceDetector.detectMultiScale(gray, faces);
-
-        for (Rect face : faces.toArray()) {
-            // Extract and preprocess face
-            Mat faceROI = new Mat(frame, face);
-            Mat processedFace = preprocessFace(faceROI);
-
-            // Get face embedding
-            float[] embedding = faceEmbedder.getEmbedding(processedFace);
-
-            // Recognize face
-            String name = recognizeFace(embedding);
-
-            // Draw rectangle and name
-            Imgproc.rectangle(frame, face, new Scalar(0, 255, 0), 2);
-            Imgproc.putText(frame, name,
-                    new Point(face.x, face.y - 10),
-                    Imgproc.FONT_HERSHEY_SIMPLEX, 1.0,
-                    new Scalar(0, 255, 0), 2);
+        Rect[] faceArray = faceDetector.detect(gray);
+        facesPerFrame.record(faceArray.length);
+        List<FaceTrack> tracks = List.of();
+        if (embeddingCache.enabled()) {
+            tracks = faceTracker.update(faceArray, frameSequence);
+            for (FaceTrack ended : faceTracker.endedTracks()) {
+                embeddingCache.remove(ended.id);
+            }
+        }
+        if (faceArray.length == 0) return;
+
+        // Extract and preprocess every face; a tracked face unchanged since a recent frame
+        // reuses its embedding, and faces failing the quality checks are not embedded at all
+        float[][] embeddings = new float[faceArray.length][];
+        FacePreprocessor.Rejection[] rejections = new FacePreprocessor.Rejection[faceArray.length];
+        EmbeddingCache.FaceHash[] hashes = new EmbeddingCache.FaceHash[faceArray.length];
+        List<Mat> processedFaces = new ArrayList<>(faceArray.length);
+        List<Integer> toEmbed = new ArrayList<>(faceArray.length);
+        for (int i = 0; i < faceArray.length; i++) {
+            Mat processed = facePreprocessor.preprocess(frame, faceArray[i], faceArena);
+            if (processed == null) {
+                rejections[i] = facePreprocessor.lastRejection();
+                continue;
+            }
+            if (embeddingCache.enabled()) {
+                hashes[i] = embeddingCache.hash(processed);
+                embeddings[i] = embeddingCache.get(tracks.get(i).id, hashes[i], faceArray[i]);
+            }
+            if (embeddings[i] == null) {
+                processedFaces.add(processed);
+                toEmbed.add(i);
+            }
         }
-    }
-
-    private Mat preprocessFace(Mat face) {
-        Mat resized = new Mat();
-        Imgproc.resize(face, resized, new Size(160, 160));
 
-        // Convert to float and normalize
-        Mat normalized = new Mat();
-        resized.convertTo(normalized, CvType.CV_32F, 1.0/255.0);
+        // Get the remaining face embeddings in one batched call
+        if (!processedFaces.isEmpty()) {
+            List<float[]> computed = faceEmbedder.getEmbeddings(processedFaces);
+            for (int j = 0; j < toEmbed.size(); j++) {
+                int i = toEmbed.get(j);
+                embeddings[i] = computed.get(j);
+                if (embeddingCache.enabled()) {
+                    embeddingCache.put(tracks.get(i).id, hashes[i], faceArray[i], embeddings[i]);
+                }
+            }
+        }
 
-        return normalized;
+        // Labels are drawn by whoever shows the frame, not here
+        List<FaceLabel> frameLabels = new ArrayList<>(faceArray.length);
+        for (int i = 0; i < faceArray.length; i++) {
+            if (rejections[i] != null) {
+                frameLabels.add(new FaceLabel(faceArray[i], rejections[i].reason, false));
+                continue;
+            }
+            String name = recognizeFace(embeddings[i]);
+            frameLabels.add(new FaceLabel(faceArray[i], name, !name.equals("Unknown")));
+        }
+        labels = frameLabels;
     }
 
     private String recognizeFace(float[] embedding) {
-        String bestMatch = "Unknown";
-        double minDistance = Double.MAX_VALUE;
-
-        for (Map.Entry<String, float[]> entry : faceDatabase.entrySet()) {
-            double distance = calculateDistance(embedding, entry.getValue());
-            if (distance < minDistance) {
-                minDistance = distance;
-                bestMatch = entry.getKey();
-            }
+        FaceMatch match = faceMatcher.nearest(embedding);
+        if (match != null) {
+            matchDistances.record(match.distance);
         }
-        System.out.println(minDistance);
-        return minDistance < RECOGNITION_THRESHOLD ? bestMatch : "Unknown";
+        return match != null && match.distance < RECOGNITION_THRESHOLD ? match.name : "Unknown";
     }
 
-    private double calculateDistance(float[] embedding1, float[] embedding2) {
-        double sum = 0.0;
-        for (int i = 0; i < embedding1.length; i++) {
-            sum += Math.pow(embedding1[i] - embedding2[i], 2);
-        }
-        return Math.sqrt(sum);
+    // Detection parameters come from -Dopensesame.detection.scaleFactor, .minNeighbors,
+    // .minSize, .maxSize and .downscale; unset ones keep OpenCV's defaults.
+    static FaceDetector createDetector(String cascadePath) {
+        return FaceDetector.fromConfig(new Config(System.getProperties()), "opensesame.detection.", cascadePath);
     }
 
-    public Map<String, float[]> loadFaceDatabase(String path) {
-        Map<String, float[]> database = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", 2);
-                if (parts.length == 2) {
-                    String name = parts[0];
-                    String[] embeddingStr = parts[1].split(" ");
-                    float[] embedding = new float[embeddingStr.length];
-                    for (int i = 0; i < embeddingStr.length; i++) {
-                        embedding[i] = Float.parseFloat(embeddingStr[i]);
-                    }
-                    database.put(name, embedding);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Quality checks, alignment and normalisation come from -Dopensesame.face.*
+    // (see FacePreprocessor.fromConfig); unset ones keep the original preprocessing.
+    static FacePreprocessor createPreprocessor() {
+        return FacePreprocessor.fromConfig(new Config(System.getProperties()), "opensesame.face.");
+    }
+
+    public EmbeddingStore loadFaceDatabase(String path) {
+        return EmbeddingStore.open(path, FaceEmbedder.EMBEDDING_SIZE);
+    }
+
+    // Builds the matcher chosen with -Dopensesame.matcher=exact|hnsw|int8|int8-codes over the whole gallery,
+    // matching each identity through -Dopensesame.prototypes prototypes (0 for every sample), with
+    // -Dopensesame.matcher.hnsw.m, .efConstruction and .efSearch tuning the graph index.
+    // The gallery reloads itself when the database file changes, e.g. after an enrolment run.
+    static LiveGallery createMatcher(EmbeddingStore database) {
+        return new LiveGallery(database, System.getProperty("opensesame.matcher", "exact"),
+                Integer.getInteger("opensesame.prototypes", PrototypeMatcher.DEFAULT_PROTOTYPES),
+                new Config(System.getProperties()), "opensesame.matcher.",
+                Long.getLong("opensesame.gallery.pollMillis", GALLERY_POLL_MILLIS));
+    }
+
+    public void registerMetrics(MetricsRegistry registry) {
+        String labels = MetricsRegistry.labels("camera", "local");
+        registry.summary("opensesame_stage_seconds", "Pipeline stage latency",
+                MetricsRegistry.labels("camera", "local", "stage", frameStats.name()), frameStats);
+        registry.histogram("opensesame_faces_per_frame", "Faces detected in each frame", labels, facesPerFrame);
+        registry.histogram("opensesame_match_distance", "Distance from each face to its closest gallery entry",
+                labels, matchDistances);
+        registry.counter("opensesame_faces_reused_total", "Faces that reused an earlier embedding",
+                MetricsRegistry.labels("camera", "local", "source", "cache"), embeddingCache::hits);
+        for (FacePreprocessor.Rejection rejection : FacePreprocessor.Rejection.values()) {
+            registry.counter("opensesame_faces_skipped_total", "Faces not embedded because of their quality",
+                    MetricsRegistry.labels("camera", "local", "reason", rejection.name().toLowerCase(Locale.ROOT)),
+                    () -> facePreprocessor.skipped(rejection));
         }
-        return database;
+    }
+
+    public FaceMatcher faceMatcher() {
+        return faceMatcher;
     }
 }
@@ -0,0 +1,89 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.FloatDataBuffer;
+import org.tensorflow.types.TFloat32;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reusable native input tensors for TensorFlowEmbedder, one per batch size. Each face
+// is copied with a single bulk Mat.get into a scratch array and then written
+// straight into its slice of the pooled tensor, so filling a batch makes no
+// per-pixel JNI calls and allocates nothing once the pool is warm.
+// Only the MAX_SLOTS most recently used batch sizes keep their tensor; a batch
+// size beyond those closes the least recently used one, so varying batch sizes
+// cannot pin a full tensor each for the life of the process.
+// Not thread-safe; TensorFlowEmbedder serialises access.
+class FaceTensorPool implements AutoCloseable {
+    static final int FACE_VALUES = FaceEmbedder.INPUT_SIZE * FaceEmbedder.INPUT_SIZE * FaceEmbedder.CHANNELS;
+    static final int MAX_SLOTS = 4;
+
+    private final float[] scratch = new float[FACE_VALUES];
+    // Batch size to slot, least recently used first
+    private final Map<Integer, Slot> slots = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Slot> eldest) {
+            if (size() > MAX_SLOTS) {
+                eldest.getValue().tensor.close();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static class Slot {
+        final TFloat32 tensor;
+        final FloatDataBuffer[] faces;
+
+        Slot(int batchSize) {
+            this.tensor = TFloat32.tensorOf(Shape.of(batchSize,
+                    FaceEmbedder.INPUT_SIZE, FaceEmbedder.INPUT_SIZE, FaceEmbedder.CHANNELS));
+            FloatDataBuffer data = tensor.asRawTensor().data().asFloats();
+            this.faces = new FloatDataBuffer[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                faces[i] = data.slice((long) i * FACE_VALUES, FACE_VALUES);
+            }
+        }
+    }
+
+    // Returns a pooled [N,160,160,3] tensor holding the given faces. The tensor
+    // stays owned by the pool and is only valid until the next call, which may
+    // overwrite or close it.
+    public TFloat32 fill(List<Mat> faces) {
+        Slot slot = slotFor(faces.size());
+        for (int i = 0; i < faces.size(); i++) {
+            copyFace(faces.get(i), scratch);
+            slot.faces[i].write(scratch);
+        }
+        return slot.tensor;
+    }
+
+    // Bulk-copies a preprocessed 160x160 CV_32FC3 face into dst.
+    static void copyFace(Mat face, float[] dst) {
+        if (face.rows() != FaceEmbedder.INPUT_SIZE || face.cols() != FaceEmbedder.INPUT_SIZE
+                || face.type() != CvType.CV_32FC3) {
+            throw new IllegalArgumentException("Expected a 160x160 CV_32FC3 face but got " + face);
+        }
+        if (face.isContinuous()) {
+            face.get(0, 0, dst);
+        } else {
+            Mat continuous = face.clone();
+            continuous.get(0, 0, dst);
+            continuous.release();
+        }
+    }
+
+    private Slot slotFor(int batchSize) {
+        return slots.computeIfAbsent(batchSize, Slot::new);
+    }
+
+    @Override
+    public void close() {
+        for (Slot slot : slots.values()) {
+            slot.tensor.close();
+        }
+        slots.clear();
+    }
+}
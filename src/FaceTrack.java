@@ -0,0 +1,61 @@
+import org.opencv.core.Rect;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// One face followed across frames, with the identity votes of every embedding
+// computed for it and the match of the latest one.
+class FaceTrack {
+    final int id;
+    Rect rect;
+    long lastSeenFrame;
+    long lastEmbeddedFrame = -1;
+    String lastName = "Unknown";
+    double lastDistance = Double.MAX_VALUE;
+    private final Map<String, Integer> votes = new HashMap<>();
+    private int totalVotes;
+
+    FaceTrack(int id, Rect rect, long frame) {
+        this.id = id;
+        this.rect = rect;
+        this.lastSeenFrame = frame;
+    }
+
+    void recordMatch(String name, double distance, long frame) {
+        // A match that disagrees with the track's identity may be someone else who
+        // stepped into the same box, so the earlier votes no longer count
+        if (totalVotes > 0 && !name.equals(identity())) {
+            votes.clear();
+            totalVotes = 0;
+        }
+        votes.merge(name, 1, Integer::sum);
+        totalVotes++;
+        lastName = name;
+        lastDistance = distance;
+        lastEmbeddedFrame = frame;
+    }
+
+    int totalVotes() {
+        return totalVotes;
+    }
+
+    // Name with the most votes, or "Unknown" before the first embedding.
+    String identity() {
+        String best = "Unknown";
+        int bestVotes = 0;
+        for (Map.Entry<String, Integer> entry : votes.entrySet()) {
+            if (entry.getValue() > bestVotes) {
+                best = entry.getKey();
+                bestVotes = entry.getValue();
+            }
+        }
+        return best;
+    }
+
+    // True once the leading identity has at least minVotes votes and a strict
+    // majority, so one stray match cannot open a door.
+    boolean isConfirmed(int minVotes) {
+        int leading = votes.getOrDefault(identity(), 0);
+        return leading >= minVotes && leading * 2 > totalVotes;
+    }
+}
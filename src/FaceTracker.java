@@ -0,0 +1,146 @@
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Associates each frame's detections with existing tracks by bounding-box
+// overlap (IoU), falling back to centroid distance for fast-moving faces, and
+// decides which tracks actually need a fresh embedding. Not thread-safe; each
+// camera's embedding stage owns one tracker.
+class FaceTracker {
+    private final double minIou;
+    private final int maxMissedFrames;
+    private final int reembedInterval;
+    private final int minVotes;
+    private final double lowConfidenceDistance;
+    private final List<FaceTrack> tracks = new ArrayList<>();
+    private final List<FaceTrack> ended = new ArrayList<>();
+    private int nextId = 1;
+
+    // reembedInterval: embed a stable, confident track every K frames.
+    // minVotes: embed a new track on each frame until it has this many votes.
+    // lowConfidenceDistance: re-embed on the next frame when the last match was farther than this.
+    FaceTracker(double minIou, int maxMissedFrames, int reembedInterval, int minVotes, double lowConfidenceDistance) {
+        this.minIou = minIou;
+        this.maxMissedFrames = maxMissedFrames;
+        this.reembedInterval = reembedInterval;
+        this.minVotes = minVotes;
+        this.lowConfidenceDistance = lowConfidenceDistance;
+    }
+
+    // Returns the track for each detection, in detection order.
+    List<FaceTrack> update(Rect[] detections, long frame) {
+        return update(detections, frame, null);
+    }
+
+    // As update(detections, frame), when the detector only looked at observed
+    // (null for the whole frame). Unmatched tracks entirely outside it were not
+    // looked for, so they are kept where they are instead of counted as missed.
+    List<FaceTrack> update(Rect[] detections, long frame, Rect observed) {
+        List<FaceTrack> assigned = new ArrayList<>(detections.length);
+        ended.clear();
+        List<FaceTrack> unmatched = new ArrayList<>(tracks);
+
+        for (Rect detection : detections) {
+            FaceTrack best = null;
+            double bestScore = 0;
+            for (FaceTrack track : unmatched) {
+                double score = iou(track.rect, detection);
+                if (score < minIou) {
+                    // Overlap can be low for a face moving quickly; accept a
+                    // centroid within half a face width as a weaker match
+                    double centroidDistance = centroidDistance(track.rect, detection);
+                    score = centroidDistance < 0.5 * Math.max(track.rect.width, detection.width) ? minIou / 2 : 0;
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = track;
+                }
+            }
+
+            if (best == null) {
+                best = new FaceTrack(nextId++, detection, frame);
+                tracks.add(best);
+            } else {
+                unmatched.remove(best);
+                best.rect = detection;
+                best.lastSeenFrame = frame;
+            }
+            assigned.add(best);
+        }
+
+        if (observed != null) {
+            for (FaceTrack track : unmatched) {
+                if (!overlaps(track.rect, observed)) {
+                    track.lastSeenFrame = frame;
+                }
+            }
+        }
+
+        // Forget faces that have left the scene
+        Iterator<FaceTrack> it = tracks.iterator();
+        while (it.hasNext()) {
+            FaceTrack track = it.next();
+            if (frame - track.lastSeenFrame > maxMissedFrames) {
+                it.remove();
+                ended.add(track);
+            }
+        }
+        return assigned;
+    }
+
+    // Tracks the last update forgot because their face left the scene.
+    List<FaceTrack> endedTracks() {
+        return ended;
+    }
+
+    boolean needsEmbedding(FaceTrack track, long frame) {
+        return track.totalVotes() < minVotes
+                || track.lastDistance > lowConfidenceDistance
+                || frame - track.lastEmbeddedFrame >= reembedInterval;
+    }
+
+    boolean isConfirmed(FaceTrack track) {
+        return track.isConfirmed(minVotes);
+    }
+
+    // Tracks detected or held in place on the given frame.
+    List<FaceTrack> visibleTracks(long frame) {
+        List<FaceTrack> visible = new ArrayList<>();
+        for (FaceTrack track : tracks) {
+            if (track.lastSeenFrame == frame) {
+                visible.add(track);
+            }
+        }
+        return visible;
+    }
+
+    int activeTracks() {
+        return tracks.size();
+    }
+
+    static double iou(Rect a, Rect b) {
+        int x1 = Math.max(a.x, b.x);
+        int y1 = Math.max(a.y, b.y);
+        int x2 = Math.min(a.x + a.width, b.x + b.width);
+        int y2 = Math.min(a.y + a.height, b.y + b.height);
+        if (x2 <= x1 || y2 <= y1) {
+            return 0;
+        }
+        double intersection = (double) (x2 - x1) * (y2 - y1);
+        double union = (double) a.width * a.height + (double) b.width * b.height - intersection;
+        return intersection / union;
+    }
+
+    private static boolean overlaps(Rect a, Rect b) {
+        return a.x < b.x + b.width && b.x < a.x + a.width
+                && a.y < b.y + b.height && b.y < a.y + a.height;
+    }
+
+    private static double centroidDistance(Rect a, Rect b) {
+        double dx = (a.x + a.width / 2.0) - (b.x + b.width / 2.0);
+        double dy = (a.y + a.height / 2.0) - (b.y + b.height / 2.0);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,46 @@
+import org.opencv.core.Mat;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Recycled frame buffers for a capture thread. VideoCapture.read into a Mat
+// that already has the stream's size and type reuses its buffer, so once every
+// frame in flight (queued, being detected, embedded or displayed) has come back
+// once, capture allocates no new frames. Whichever stage finishes with a frame
+// hands it back with recycle(); a frame that does not fit is released instead.
+//
+// Thread-safe: frames are taken by the capture thread and recycled by any stage.
+class FramePool {
+    private final ArrayBlockingQueue<Mat> free;
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    FramePool(int capacity) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    Mat take() {
+        Mat frame = free.poll();
+        if (frame != null) {
+            reused.increment();
+            return frame;
+        }
+        allocated.increment();
+        return new Mat();
+    }
+
+    void recycle(Mat frame) {
+        if (!free.offer(frame)) {
+            frame.release();
+        }
+    }
+
+    // Frames created because none was free.
+    public long allocated() {
+        return allocated.sum();
+    }
+
+    public long reused() {
+        return reused.sum();
+    }
+}
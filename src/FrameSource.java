@@ -0,0 +1,9 @@
+import org.opencv.core.Mat;
+
+// Where a CameraStream reads its frames from: a live camera (VideoCapture::read)
+// or recorded footage replayed by ReplayBenchmark.
+interface FrameSource {
+    // Reads the next frame into frame, reusing its buffer when the size matches.
+    // Returns false once the source has ended.
+    boolean read(Mat frame);
+}
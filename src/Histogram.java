@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts of observed values in fixed buckets, for distributions that are not
+// latencies (faces per frame, match distances). Each bucket counts the values
+// up to and including its upper bound; values above the last bound only go to
+// the count. Recording is lock-free and safe from any thread.
+class Histogram {
+    private final double[] upperBounds;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    // upperBounds must be ascending.
+    Histogram(double... upperBounds) {
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (upperBounds[i] <= upperBounds[i - 1]) {
+                throw new IllegalArgumentException("Histogram bounds must be ascending");
+            }
+        }
+        this.upperBounds = upperBounds.clone();
+        this.buckets = new LongAdder[upperBounds.length];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(double value) {
+        int i = 0;
+        while (i < upperBounds.length && value > upperBounds[i]) {
+            i++;
+        }
+        if (i < upperBounds.length) {
+            buckets[i].increment();
+        }
+        count.increment();
+        sum.add(value);
+    }
+
+    int buckets() {
+        return upperBounds.length;
+    }
+
+    double upperBound(int bucket) {
+        return upperBounds[bucket];
+    }
+
+    // Values up to and including upperBound(bucket), as Prometheus's cumulative le buckets.
+    long cumulativeCount(int bucket) {
+        long total = 0;
+        for (int i = 0; i <= bucket; i++) {
+            total += buckets[i].sum();
+        }
+        return total;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double sum() {
+        return sum.sum();
+    }
+
+    public double mean() {
+        long n = count();
+        return n == 0 ? 0 : sum() / n;
+    }
+}
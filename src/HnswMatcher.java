@@ -0,0 +1,463 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Approximate nearest-neighbour index (Hierarchical Navigable Small World graph,
+// Malkov & Yashunin 2016). Each query visits roughly O(log N) nodes instead of
+// scanning the whole gallery.
+//
+// m               links per node on the upper layers (2*m on layer 0); more links
+//                 raise recall and memory use
+// efConstruction  candidate list size while inserting; higher builds a better graph, slower
+// efSearch        candidate list size while querying; the main recall/latency knob
+//
+// Inserts are incremental, so enrolling a person does not require a rebuild.
+// Removal marks nodes deleted: they still route searches through the graph but
+// are never returned. Once more than a quarter of the nodes are deleted, the
+// graph is rebuilt from the live ones, which reclaims their memory. Should a
+// search still come back with fewer matches than asked for and live nodes
+// remain (the frontier only reached deleted nodes), the query falls back to an
+// exact scan over the live nodes. Queries run concurrently under a read lock;
+// inserts and removals take the write lock.
+class HnswMatcher implements FaceMatcher {
+    static final int DEFAULT_M = 16;
+    static final int DEFAULT_EF_CONSTRUCTION = 100;
+    static final int DEFAULT_EF_SEARCH = 64;
+    // Rebuild once more than this fraction of the nodes are deleted
+    private static final double MAX_DELETED_FRACTION = 0.25;
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private volatile int efSearch;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<VisitedSet> visitedSets = ThreadLocal.withInitial(VisitedSet::new);
+
+    private int dimension = -1;
+    private float[] vectors = new float[0];
+    private final List<String> names = new ArrayList<>();
+    // links[node][level] = {count, neighbour ids...}
+    private int[][][] links = new int[0][][];
+    private int size;
+    private boolean[] deleted = new boolean[0];
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswMatcher() {
+        this(DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH);
+    }
+
+    public HnswMatcher(int m, int efConstruction, int efSearch) {
+        if (m < 2 || efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("Invalid HNSW parameters m=" + m
+                    + " efConstruction=" + efConstruction + " efSearch=" + efSearch);
+        }
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    // Reads <prefix>m, <prefix>efConstruction and <prefix>efSearch, e.g. matcher.hnsw.m.
+    static HnswMatcher fromConfig(Config config, String prefix) {
+        return new HnswMatcher(
+                config.getInt(prefix + "m", DEFAULT_M),
+                config.getInt(prefix + "efConstruction", DEFAULT_EF_CONSTRUCTION),
+                config.getInt(prefix + "efSearch", DEFAULT_EF_SEARCH));
+    }
+
+    public void setEfSearch(int efSearch) {
+        if (efSearch < 1) {
+            throw new IllegalArgumentException("efSearch must be at least 1");
+        }
+        this.efSearch = efSearch;
+    }
+
+    @Override
+    public void add(String name, float[] embedding) {
+        lock.writeLock().lock();
+        try {
+            if (dimension < 0) {
+                dimension = embedding.length;
+            } else if (embedding.length != dimension) {
+                throw new IllegalArgumentException("Expected " + dimension + "-d embedding but got " + embedding.length);
+            }
+            ensureCapacity(size + 1);
+
+            int node = size;
+            System.arraycopy(embedding, 0, vectors, node * dimension, dimension);
+            names.add(name);
+            int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+            links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                links[node][l] = new int[(l == 0 ? maxM0 : m) + 1];
+            }
+            size++;
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+
+            int current = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                current = greedyClosest(vectors, node * dimension, current, l);
+            }
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                NodeHeap found = searchLayer(vectors, node * dimension, current, efConstruction, l, false);
+                float[] sortedDistances = new float[found.size()];
+                int[] sorted = found.drainAscending(sortedDistances);
+                int[] selected = selectNeighbours(sorted, sortedDistances, l == 0 ? maxM0 : m);
+                for (int neighbour : selected) {
+                    link(node, neighbour, l);
+                    link(neighbour, node, l);
+                }
+                current = sorted[0];
+            }
+            if (level > maxLevel) {
+                entryPoint = node;
+                maxLevel = level;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public FaceMatch nearest(float[] query) {
+        List<FaceMatch> matches = nearest(query, 1);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    @Override
+    public List<FaceMatch> nearest(float[] query, int k) {
+        lock.readLock().lock();
+        try {
+            if (size == deletedCount || k <= 0) {
+                return new ArrayList<>();
+            }
+            int current = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedyClosest(query, 0, current, l);
+            }
+            NodeHeap found = searchLayer(query, 0, current, Math.max(efSearch, k), 0, true);
+            if (found.size() < Math.min(k, size - deletedCount)) {
+                found = scanLive(query, k);
+            }
+            float[] distances = new float[found.size()];
+            int[] nodes = found.drainAscending(distances);
+            List<FaceMatch> matches = new ArrayList<>(Math.min(k, nodes.length));
+            for (int i = 0; i < nodes.length && i < k; i++) {
+                matches.add(new FaceMatch(names.get(nodes[i]), Math.sqrt(distances[i])));
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int remove(String name) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int node = 0; node < size; node++) {
+                if (!deleted[node] && names.get(node).equals(name)) {
+                    deleted[node] = true;
+                    removed++;
+                }
+            }
+            deletedCount += removed;
+            if (deletedCount > MAX_DELETED_FRACTION * size) {
+                rebuild();
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Re-inserts the live nodes into an empty graph. Called with the write lock held.
+    private void rebuild() {
+        int live = size - deletedCount;
+        float[] liveVectors = new float[live * Math.max(dimension, 0)];
+        List<String> liveNames = new ArrayList<>(live);
+        for (int node = 0, row = 0; node < size; node++) {
+            if (!deleted[node]) {
+                System.arraycopy(vectors, node * dimension, liveVectors, row++ * dimension, dimension);
+                liveNames.add(names.get(node));
+            }
+        }
+        vectors = new float[0];
+        names.clear();
+        links = new int[0][][];
+        deleted = new boolean[0];
+        size = 0;
+        deletedCount = 0;
+        entryPoint = -1;
+        maxLevel = -1;
+        float[] embedding = new float[dimension];
+        for (int row = 0; row < live; row++) {
+            System.arraycopy(liveVectors, row * dimension, embedding, 0, dimension);
+            add(liveNames.get(row), embedding);
+        }
+    }
+
+    // The k closest live nodes by brute force, as a max-heap like searchLayer's.
+    private NodeHeap scanLive(float[] query, int k) {
+        NodeHeap results = new NodeHeap(true, k + 1);
+        for (int node = 0; node < size; node++) {
+            if (deleted[node]) continue;
+            float d = distance(query, 0, node);
+            if (results.size() < k || d < results.peekKey()) {
+                results.push(node, d);
+                if (results.size() > k) {
+                    results.pop();
+                }
+            }
+        }
+        return results;
+    }
+
+    // Walks to the neighbour closest to the query until no neighbour improves.
+    private int greedyClosest(float[] query, int queryOffset, int start, int level) {
+        int current = start;
+        float currentDistance = distance(query, queryOffset, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links[current][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                float d = distance(query, queryOffset, neighbours[i]);
+                if (d < currentDistance) {
+                    currentDistance = d;
+                    current = neighbours[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Best-first search on one layer. Returns up to ef nodes as a max-heap keyed
+    // on distance. With skipDeleted, deleted nodes are walked through but not returned.
+    private NodeHeap searchLayer(float[] query, int queryOffset, int start, int ef, int level, boolean skipDeleted) {
+        VisitedSet visited = visitedSets.get();
+        visited.reset(size);
+
+        NodeHeap candidates = new NodeHeap(false, ef * 2);
+        NodeHeap results = new NodeHeap(true, ef + 1);
+        float startDistance = distance(query, queryOffset, start);
+        candidates.push(start, startDistance);
+        if (!skipDeleted || !deleted[start]) {
+            results.push(start, startDistance);
+        }
+        visited.mark(start);
+
+        while (candidates.size() > 0) {
+            float candidateDistance = candidates.peekKey();
+            if (results.size() >= ef && candidateDistance > results.peekKey()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] neighbours = links[candidate][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (!visited.mark(neighbour)) continue;
+
+                float d = distance(query, queryOffset, neighbour);
+                if (results.size() < ef || d < results.peekKey()) {
+                    candidates.push(neighbour, d);
+                    if (skipDeleted && deleted[neighbour]) continue;
+                    results.push(neighbour, d);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    // Neighbour selection heuristic: keep a candidate only if it is closer to the
+    // base than to every neighbour already kept, which spreads links across directions.
+    private int[] selectNeighbours(int[] ascending, float[] distancesToBase, int max) {
+        int[] selected = new int[Math.min(max, ascending.length)];
+        int count = 0;
+        for (int i = 0; i < ascending.length && count < selected.length; i++) {
+            int candidate = ascending[i];
+            float toBase = distancesToBase[i];
+            boolean keep = true;
+            for (int j = 0; j < count; j++) {
+                if (distance(vectors, selected[j] * dimension, candidate) < toBase) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void link(int from, int to, int level) {
+        int[] neighbours = links[from][level];
+        int max = neighbours.length - 1;
+        if (neighbours[0] < max) {
+            neighbours[++neighbours[0]] = to;
+            return;
+        }
+
+        // Full: replace the farthest existing link if the new node is closer.
+        // Cheaper than re-running the selection heuristic on every overflow,
+        // which otherwise dominates insert time.
+        int baseOffset = from * dimension;
+        int farthest = -1;
+        float farthestDistance = distance(vectors, baseOffset, to);
+        for (int i = 1; i <= neighbours[0]; i++) {
+            float d = distance(vectors, baseOffset, neighbours[i]);
+            if (d > farthestDistance) {
+                farthestDistance = d;
+                farthest = i;
+            }
+        }
+        if (farthest > 0) {
+            neighbours[farthest] = to;
+        }
+    }
+
+    private float distance(float[] query, int queryOffset, int node) {
+        return DistanceKernel.squaredL2(query, queryOffset, vectors, node * dimension, dimension);
+    }
+
+    private void ensureCapacity(int required) {
+        if (links.length >= required) return;
+        int capacity = Math.max(16, links.length * 2);
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        links = Arrays.copyOf(links, capacity);
+        deleted = Arrays.copyOf(deleted, capacity);
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+    }
+
+    // Epoch-stamped visited marks, reused across searches on the same thread.
+    private static class VisitedSet {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        void reset(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                epoch = 0;
+            }
+            epoch++;
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        // Returns true if the node had not been visited yet.
+        boolean mark(int node) {
+            if (marks[node] == epoch) return false;
+            marks[node] = epoch;
+            return true;
+        }
+    }
+
+    // Binary heap of (node, distance) pairs on primitive arrays.
+    private static class NodeHeap {
+        private final boolean max;
+        private int[] nodes;
+        private float[] keys;
+        private int size;
+
+        NodeHeap(boolean max, int capacity) {
+            this.max = max;
+            this.nodes = new int[Math.max(capacity, 4)];
+            this.keys = new float[nodes.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float peekKey() {
+            return keys[0];
+        }
+
+        void push(int node, float key) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(key, keys[parent])) break;
+                nodes[i] = nodes[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            int lastNode = nodes[size];
+            float lastKey = keys[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && before(keys[child + 1], keys[child])) {
+                    child++;
+                }
+                if (!before(keys[child], lastKey)) break;
+                nodes[i] = nodes[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            keys[i] = lastKey;
+            return top;
+        }
+
+        // Empties the heap and returns its nodes ordered by ascending distance,
+        // writing the matching distances into distancesOut.
+        int[] drainAscending(float[] distancesOut) {
+            int[] out = new int[size];
+            for (int n = 0; n < out.length; n++) {
+                int i = max ? out.length - 1 - n : n;
+                distancesOut[i] = keys[0];
+                out[i] = pop();
+            }
+            return out;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded hand-off between pipeline stages. When the consumer falls behind,
+// the oldest queued item is evicted so the consumer always sees the newest data.
+class LatestWinsQueue<T> {
+    private final ArrayDeque<T> items;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public LatestWinsQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.items = new ArrayDeque<>(capacity);
+    }
+
+    // Returns the item that was evicted to make room, or null. The caller owns
+    // the evicted item and is responsible for releasing it.
+    public T offer(T item) {
+        T evicted = null;
+        lock.lock();
+        try {
+            if (items.size() == capacity) {
+                evicted = items.pollFirst();
+                dropped.incrementAndGet();
+            }
+            items.addLast(item);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return evicted;
+    }
+
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty()) {
+                notEmpty.await();
+            }
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public T poll() {
+        lock.lock();
+        try {
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// A gallery that can change while cameras are recognising. Readers use an
+// immutable snapshot (a matcher built from the store, plus the set of names
+// revoked since it was built) read through one AtomicReference. Changes build
+// a complete new matcher off to the side and swap it in (read-copy-update), so
+// recognition never waits for an enrolment or a rebuild. Nothing writes to a
+// published matcher, so the read locks inside it are never contended.
+//
+// Updates arrive three ways:
+//   add/addAll/      admin calls, and FaceDatabaseCreator enrolling through the
+//   revoke           gallery's own store; revocation is published before it
+//                    returns, so the very next query no longer matches the name
+//   file watch       the store file is polled every pollMillis and reloaded when
+//                    its size or modification time changes, e.g. after a separate
+//                    enrolment run or an edit by another process
+//   requestReload()  an explicit rebuild
+//
+// A revocation made in another process therefore takes effect within
+// pollMillis plus one rebuild, which lastReloadMillis() reports.
+class LiveGallery implements FaceMatcher, AutoCloseable {
+    // Extra candidates fetched per query while revoked names are still in the snapshot
+    private static final int REVOKED_LOOKAHEAD = 4;
+
+    private final EmbeddingStore store;
+    private final String kind;
+    private final int prototypes;
+    private final Config config;
+    private final String prefix;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final AtomicBoolean reloadPending = new AtomicBoolean();
+    private final ScheduledExecutorService updater;
+    private volatile long lastReloadNanos;
+    private long lastModified;
+    private long lastSize;
+
+    private static final class Snapshot {
+        final FaceMatcher matcher;
+        final Set<String> names;
+        final Set<String> revoked;
+
+        Snapshot(FaceMatcher matcher, Set<String> names, Set<String> revoked) {
+            this.matcher = matcher;
+            this.names = names;
+            this.revoked = revoked;
+        }
+
+        Snapshot revoke(String name) {
+            Set<String> updated = new HashSet<>(revoked);
+            updated.add(name);
+            return new Snapshot(matcher, names, Collections.unmodifiableSet(updated));
+        }
+    }
+
+    LiveGallery(EmbeddingStore store, String kind, int prototypes, long pollMillis) {
+        this(store, kind, prototypes, new Config(new Properties()), "", pollMillis);
+    }
+
+    // kind, prototypes, config and prefix as for FaceMatcher.fromStore. pollMillis <= 0
+    // disables the file watch.
+    LiveGallery(EmbeddingStore store, String kind, int prototypes, Config config, String prefix, long pollMillis) {
+        this.store = store;
+        this.kind = kind;
+        this.prototypes = prototypes;
+        this.config = config;
+        this.prefix = prefix;
+        this.updater = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "gallery-updater");
+            t.setDaemon(true);
+            return t;
+        });
+        recordFileState();
+        current.set(build(Collections.emptySet()));
+        if (pollMillis > 0) {
+            updater.scheduleWithFixedDelay(this::checkFile, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public FaceMatch nearest(float[] query) {
+        Snapshot snapshot = current.get();
+        if (snapshot.revoked.isEmpty()) {
+            return snapshot.matcher.nearest(query);
+        }
+        List<FaceMatch> matches = nearest(snapshot, query, 1);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    @Override
+    public List<FaceMatch> nearest(float[] query, int k) {
+        return nearest(current.get(), query, k);
+    }
+
+    private static List<FaceMatch> nearest(Snapshot snapshot, float[] query, int k) {
+        if (snapshot.revoked.isEmpty()) {
+            return snapshot.matcher.nearest(query, k);
+        }
+        List<FaceMatch> matches = new ArrayList<>(k);
+        for (FaceMatch match : snapshot.matcher.nearest(query, k + REVOKED_LOOKAHEAD)) {
+            if (!snapshot.revoked.contains(match.name)) {
+                matches.add(match);
+                if (matches.size() == k) break;
+            }
+        }
+        return matches;
+    }
+
+    // Persists the embedding; it becomes matchable once the rebuild it triggers is swapped in.
+    @Override
+    public void add(String name, float[] embedding) {
+        store.append(name, embedding);
+        requestReload();
+    }
+
+    // Same as revoke(name).
+    @Override
+    public int remove(String name) {
+        return revoke(name);
+    }
+
+    // Stops name from matching immediately, then deletes its rows from the
+    // store and rebuilds without them in the background. Returns the number of
+    // rows removed from the store.
+    public int revoke(String name) {
+        current.updateAndGet(snapshot -> snapshot.revoke(name));
+        int removed = store.removeAll(name);
+        requestReload();
+        System.out.println("Revoked " + name + " (" + removed + " embeddings removed)");
+        return removed;
+    }
+
+    // Rebuilds from the store on the updater thread. Requests made while one
+    // is queued are merged into it.
+    public void requestReload() {
+        if (reloadPending.compareAndSet(false, true)) {
+            updater.execute(this::reload);
+        }
+    }
+
+    // Rebuilds the matcher from the store and swaps it in. Runs on the updater thread.
+    private void reload() {
+        reloadPending.set(false);
+        long start = System.nanoTime();
+        Snapshot built;
+        try {
+            store.refresh();
+            recordFileState();
+            built = build(current.get().revoked);
+        } catch (RuntimeException e) {
+            // Keep serving the previous snapshot; the next change or poll retries
+            System.out.println("Error reloading gallery: " + e.getMessage());
+            return;
+        }
+        // Keep names revoked while building, unless the new matcher no longer has them
+        Snapshot published = current.updateAndGet(latest -> {
+            Set<String> revoked = new HashSet<>();
+            for (String name : latest.revoked) {
+                if (built.names.contains(name)) {
+                    revoked.add(name);
+                }
+            }
+            return new Snapshot(built.matcher, built.names, Collections.unmodifiableSet(revoked));
+        });
+        lastReloadNanos = System.nanoTime() - start;
+        System.out.printf("Gallery reloaded: %d embeddings, %d identities, %d pending revocations in %.0f ms%n",
+                published.matcher.size(), published.names.size(), published.revoked.size(), lastReloadMillis());
+    }
+
+    @Override
+    public int size() {
+        return current.get().matcher.size();
+    }
+
+    public double lastReloadMillis() {
+        return lastReloadNanos / 1e6;
+    }
+
+    // Persists every row of other in one append, then rebuilds once. Rows
+    // already in this gallery's own store are only reloaded.
+    @Override
+    public void addAll(EmbeddingStore other) {
+        if (other != store) {
+            List<String> names = new ArrayList<>();
+            List<float[]> embeddings = new ArrayList<>();
+            synchronized (other) {
+                for (int row = 0; row < other.size(); row++) {
+                    float[] embedding = new float[other.dimension()];
+                    other.vector(row, embedding);
+                    names.add(other.name(row));
+                    embeddings.add(embedding);
+                }
+            }
+            store.appendAll(names, embeddings);
+        }
+        requestReload();
+    }
+
+    // The store this gallery is built from, for writers that enrol into it.
+    EmbeddingStore store() {
+        return store;
+    }
+
+    @Override
+    public void close() {
+        updater.shutdownNow();
+    }
+
+    private Snapshot build(Set<String> revoked) {
+        // Holding the store's lock keeps appends and removals from shifting rows
+        // mid-build; they wait for the build, recognition does not
+        synchronized (store) {
+            FaceMatcher matcher = FaceMatcher.fromStore(store, kind, prototypes, config, prefix);
+            Set<String> names = new HashSet<>();
+            for (int row = 0; row < store.size(); row++) {
+                names.add(store.name(row));
+            }
+            return new Snapshot(matcher, Collections.unmodifiableSet(names), revoked);
+        }
+    }
+
+    private void checkFile() {
+        try {
+            Path path = store.path();
+            if (Files.getLastModifiedTime(path).toMillis() != lastModified || Files.size(path) != lastSize) {
+                requestReload();
+            }
+        } catch (IOException e) {
+            System.out.println("Error checking gallery file: " + e.getMessage());
+        }
+    }
+
+    private void recordFileState() {
+        try {
+            lastModified = Files.getLastModifiedTime(store.path()).toMillis();
+            lastSize = Files.size(store.path());
+        } catch (IOException e) {
+            System.out.println("Error reading gallery file state: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Frame-scoped scratch Mats. next() hands out the arena's Mats in turn and
+// reset() makes them all available again once the frame is done with them.
+// OpenCV functions writing into a Mat that already has the right size and type
+// keep its buffer, so once the arena has grown to what a frame needs (one Mat
+// per intermediate per face), preprocessing allocates no pixel memory at all
+// instead of leaving a few hundred KB per face for the finalizers.
+//
+// Single-threaded; everything next() returned is invalid after reset().
+class MatArena {
+    private final List<Mat> mats = new ArrayList<>();
+    private int used;
+
+    Mat next() {
+        if (used == mats.size()) {
+            mats.add(new Mat());
+        }
+        return mats.get(used++);
+    }
+
+    void reset() {
+        used = 0;
+    }
+
+    // Mats created so far; stops growing once the busiest frame has been seen.
+    int size() {
+        return mats.size();
+    }
+
+    void release() {
+        for (Mat mat : mats) {
+            mat.release();
+        }
+        mats.clear();
+        used = 0;
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.Random;
+
+// Recall@1, queries per second and heap per identity of the HNSW index and the
+// int8 matchers against the exact scan on synthetic FaceNet-like galleries
+// (unit-length 128-d embeddings; each query is a noisy re-capture of an enrolled
+// identity). Recall is measured against ExactMatcher.calculateDistance.
+//
+// Usage: MatcherBenchmark [sizes...]    default: 1000 10000 100000
+public class MatcherBenchmark {
+    private static final int DIMENSION = FaceEmbedder.EMBEDDING_SIZE;
+    private static final int QUERIES = 1000;
+    private static final double QUERY_NOISE = 0.02;
+    private static final int[] EF_SEARCH = {16, 32, 64, 128};
+    private static final int[] RERANK = {0, 8, QuantizedMatcher.DEFAULT_RERANK};
+
+    public static void main(String[] args) {
+        int[] sizes = {1_000, 10_000, 100_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int size : sizes) {
+            Random random = new Random(size);
+            float[][] gallery = new float[size][];
+            for (int i = 0; i < size; i++) {
+                gallery[i] = randomUnitVector(random);
+            }
+            float[][] queries = new float[QUERIES][];
+            for (int i = 0; i < QUERIES; i++) {
+                queries[i] = perturb(gallery[random.nextInt(size)], random);
+            }
+
+            String[] truth = new String[QUERIES];
+            double[] truthDistances = new double[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                int best = referenceNearest(gallery, queries[i]);
+                truth[i] = "id" + best;
+                truthDistances[i] = ExactMatcher.calculateDistance(gallery[best], queries[i]);
+            }
+
+            ExactMatcher exact = new ExactMatcher();
+            for (int i = 0; i < size; i++) {
+                exact.add("id" + i, gallery[i]);
+            }
+            for (int i = 0; i < QUERIES; i++) {
+                exact.nearest(queries[i]);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                exact.nearest(queries[i]);
+            }
+            double exactQps = QUERIES / ((System.nanoTime() - start) / 1e9);
+            System.out.printf("%d identities:%n", size);
+            System.out.printf("  %-22s recall@1 1.000  %8.0f q/s  %5d bytes/identity%n",
+                    "exact", exactQps, exact.memoryBytes() / size);
+
+            for (int rerank : RERANK) {
+                QuantizedMatcher quantized = new QuantizedMatcher(rerank);
+                for (int i = 0; i < size; i++) {
+                    quantized.add("id" + i, gallery[i]);
+                }
+                double[] result = measure(quantized, queries, truth);
+                System.out.printf("  %-22s recall@1 %.3f  %8.0f q/s  %5d bytes/identity  (%.1fx exact)"
+                                + "  max distance error %.4f%n",
+                        rerank == 0 ? "int8 codes only" : "int8 rerank=" + rerank, result[0], result[1],
+                        quantized.memoryBytes() / size, result[1] / exactQps,
+                        maxDistanceError(quantized, queries, truth, truthDistances));
+            }
+
+            HnswMatcher hnsw = new HnswMatcher();
+            start = System.nanoTime();
+            for (int i = 0; i < size; i++) {
+                hnsw.add("id" + i, gallery[i]);
+            }
+            double buildSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("  hnsw build %.1f s%n", buildSeconds);
+            for (int ef : EF_SEARCH) {
+                hnsw.setEfSearch(ef);
+                double[] result = measure(hnsw, queries, truth);
+                System.out.printf("  hnsw efSearch=%-8d recall@1 %.3f  %8.0f q/s  (%.1fx exact)%n",
+                        ef, result[0], result[1], result[1] / exactQps);
+            }
+        }
+    }
+
+    // {recall@1, queries per second}, timed after one warm-up pass.
+    private static double[] measure(FaceMatcher matcher, float[][] queries, String[] truth) {
+        for (float[] query : queries) {
+            matcher.nearest(query);
+        }
+        int hits = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.length; i++) {
+            if (matcher.nearest(queries[i]).name.equals(truth[i])) {
+                hits++;
+            }
+        }
+        double qps = queries.length / ((System.nanoTime() - start) / 1e9);
+        return new double[] {hits / (double) queries.length, qps};
+    }
+
+    // Largest difference between a correctly matched query's reported distance
+    // and its exact distance; what the recognition threshold sees.
+    private static double maxDistanceError(FaceMatcher matcher, float[][] queries, String[] truth,
+                                           double[] truthDistances) {
+        double maxError = 0;
+        for (int i = 0; i < queries.length; i++) {
+            FaceMatch match = matcher.nearest(queries[i]);
+            if (match.name.equals(truth[i])) {
+                maxError = Math.max(maxError, Math.abs(match.distance - truthDistances[i]));
+            }
+        }
+        return maxError;
+    }
+
+    private static int referenceNearest(float[][] gallery, float[] query) {
+        int best = 0;
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < gallery.length; i++) {
+            double distance = ExactMatcher.calculateDistance(gallery[i], query);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        float[] v = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            v[i] = (float) random.nextGaussian();
+        }
+        return normalize(v);
+    }
+
+    private static float[] perturb(float[] base, Random random) {
+        float[] v = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            v[i] = base[i] + (float) (random.nextGaussian() * QUERY_NOISE);
+        }
+        return normalize(v);
+    }
+
+    private static float[] normalize(float[] v) {
+        double norm = 0;
+        for (float x : v) {
+            norm += x * x;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < v.length; i++) {
+            v[i] *= scale;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Replays recorded footage through the full CameraStream pipeline (capture,
+// motion gate, detection, embedding, matching; no display, no unlocks) in a
+// loop for hours and samples process memory along the way: resident set size
+// from /proc/self/status, Java heap, GC activity, and how many frame buffers
+// the pipeline had to allocate. A pipeline that recycles its buffers shows RSS
+// and allocations flattening after the first loop; the summary reports the RSS
+// slope over the second half of the run.
+//
+// Usage: MemorySoak <video file> [hours] [sampleSeconds]    default: 4 60
+public class MemorySoak {
+    private static final long MB = 1024 * 1024;
+
+    private final CameraStream stream;
+    private final long startNanos = System.nanoTime();
+    private final long durationNanos;
+    private long halfwayRssKb = -1;
+    private double halfwayHours;
+    private volatile boolean done;
+
+    MemorySoak(CameraStream stream, double hours) {
+        this.stream = stream;
+        this.durationNanos = (long) (hours * 3600e9);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: MemorySoak <video file> [hours] [sampleSeconds]");
+            return;
+        }
+        double hours = args.length > 1 ? Double.parseDouble(args[1]) : 4;
+        long sampleSeconds = args.length > 2 ? Long.parseLong(args[2]) : 60;
+
+        // No authorized names, so nothing is ever sent to the door URL
+        CameraConfig camera = new CameraConfig("soak", args[0], "http://127.0.0.1:9/unused", "", "",
+                new HashSet<>());
+        EmbeddingBatcher batcher = new EmbeddingBatcher(
+                FaceEmbedder.fromConfig(new Config(System.getProperties()), "opensesame.", "facenet_model.pb"),
+                CameraStream.MAX_BATCH_SIZE, CameraStream.MAX_BATCH_WAIT_MILLIS);
+        LiveGallery gallery = FaceRecognition.createMatcher(
+                EmbeddingStore.open("face_database.bin", FaceEmbedder.EMBEDDING_SIZE));
+        DoorActuator doors = new DoorActuator();
+        CameraStream stream = new CameraStream(camera, "haarcascade_frontalface_default.xml", batcher, gallery, doors);
+
+        MemorySoak soak = new MemorySoak(stream, hours);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "soak-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        System.out.println("hours   rss MB  heap MB  gc count  gc ms   frames  frame allocs");
+        soak.sample();
+        sampler.scheduleAtFixedRate(soak::sample, sampleSeconds, sampleSeconds, TimeUnit.SECONDS);
+
+        int loops = 0;
+        while (!soak.done) {
+            long before = stream.processedFrames();
+            stream.startStream(false, false);
+            if (stream.processedFrames() == before) {
+                System.out.println("Error: No frames read from " + args[0]);
+                break;
+            }
+            loops++;
+        }
+        sampler.shutdownNow();
+        soak.sample();
+        System.out.println(loops + " passes over " + args[0]);
+        soak.printSummary();
+
+        doors.close();
+        gallery.close();
+        batcher.close();
+    }
+
+    private void sample() {
+        long elapsed = System.nanoTime() - startNanos;
+        double hours = elapsed / 3600e9;
+        long rssKb = residentKb();
+        if (halfwayRssKb < 0 && elapsed >= durationNanos / 2) {
+            halfwayRssKb = rssKb;
+            halfwayHours = hours;
+        }
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%5.2f %8.1f %8.1f %9d %6d %8d %13d%n", hours, rssKb / 1024.0,
+                (runtime.totalMemory() - runtime.freeMemory()) / (double) MB, gcCount, gcMillis,
+                stream.processedFrames(), stream.allocatedFrames());
+        if (elapsed >= durationNanos) {
+            done = true;
+            stream.stop();
+        }
+    }
+
+    private void printSummary() {
+        long rssKb = residentKb();
+        double hours = (System.nanoTime() - startNanos) / 3600e9;
+        if (halfwayRssKb >= 0 && hours > halfwayHours) {
+            System.out.printf("RSS %.1f MB at halfway, %.1f MB at the end: %+.2f MB/hour over the second half%n",
+                    halfwayRssKb / 1024.0, rssKb / 1024.0, (rssKb - halfwayRssKb) / 1024.0 / (hours - halfwayHours));
+        }
+        System.out.printf("%d frames processed, %d frame buffers allocated%n",
+                stream.processedFrames(), stream.allocatedFrames());
+    }
+
+    // VmRSS from /proc/self/status, or -1 where there is no procfs.
+    static long residentKb() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+// Named views over the pipeline's own counters, rendered in the Prometheus
+// text format when scraped. Nothing is recorded through the registry: stages
+// keep updating their StageStats, Histograms and LongAdders as before, and the
+// registry reads them only when /metrics is requested, so the frame loop pays
+// nothing for being observable.
+//
+// A metric is a name plus a label set such as camera="front"; registering the
+// same pair again replaces the earlier source.
+class MetricsRegistry {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    private interface Source {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Source> sources = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    // Monotonic count; name should end in _total.
+    void counter(String name, String help, String labels, LongSupplier value) {
+        register(name, help, "counter", labels, (out, n, l) -> sample(out, n, l, null, value.getAsLong()));
+    }
+
+    void gauge(String name, String help, String labels, DoubleSupplier value) {
+        register(name, help, "gauge", labels, (out, n, l) -> sample(out, n, l, null, value.getAsDouble()));
+    }
+
+    // Latency quantiles, sum and count of a stage, in seconds.
+    void summary(String name, String help, String labels, StageStats stats) {
+        register(name, help, "summary", labels, (out, n, l) -> {
+            for (double quantile : QUANTILES) {
+                sample(out, n, l, "quantile=\"" + quantile + "\"", stats.percentileMillis(quantile * 100) / 1000);
+            }
+            sample(out, n + "_sum", l, null, stats.totalMillis() / 1000);
+            sample(out, n + "_count", l, null, stats.processed());
+        });
+    }
+
+    void histogram(String name, String help, String labels, Histogram histogram) {
+        register(name, help, "histogram", labels, (out, n, l) -> {
+            long count = histogram.count();
+            for (int i = 0; i < histogram.buckets(); i++) {
+                sample(out, n + "_bucket", l, "le=\"" + histogram.upperBound(i) + "\"", histogram.cumulativeCount(i));
+            }
+            sample(out, n + "_bucket", l, "le=\"+Inf\"", count);
+            sample(out, n + "_sum", l, null, histogram.sum());
+            sample(out, n + "_count", l, null, count);
+        });
+    }
+
+    private synchronized void register(String name, String help, String type, String labels, Source source) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        family.sources.put(labels, source);
+    }
+
+    // Every registered metric in the Prometheus text exposition format (version 0.0.4).
+    synchronized String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Source> source : family.sources.entrySet()) {
+                source.getValue().write(out, name, source.getKey());
+            }
+        }
+        return out.toString();
+    }
+
+    // Label set from alternating names and values: labels("camera", "front", "stage", "detect").
+    static String labels(String... namesAndValues) {
+        if (namesAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels come in name/value pairs");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(namesAndValues[i]).append("=\"");
+            String value = namesAndValues[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    out.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(ch);
+                }
+            }
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extraLabel, double value) {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,43 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Serves a MetricsRegistry at GET /metrics for Prometheus to scrape. Runs on
+// its own single thread; a scrape never touches the video threads.
+class MetricsServer implements AutoCloseable {
+    private final HttpServer server;
+
+    MetricsServer(MetricsRegistry registry, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    // A server on port, or null (after saying why) when port is 0 or taken.
+    static MetricsServer start(MetricsRegistry registry, int port) {
+        if (port <= 0) return null;
+        try {
+            MetricsServer server = new MetricsServer(registry, port);
+            System.out.println("Metrics on http://0.0.0.0:" + port + "/metrics");
+            return server;
+        } catch (IOException e) {
+            System.out.println("Error: Cannot start metrics endpoint on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,152 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+// Decides which part of a grayscale frame is worth running the face detector on.
+// Detection is limited to a fixed region of interest (e.g. the area in front of
+// the door) and, when motion gating is on, to the bounding box of whatever
+// changed against a running-average background. Idle frames are skipped entirely.
+//
+// The background is kept on a small downscaled copy, so the gate itself costs
+// well under a millisecond per frame. Every fullDetectionInterval frames the
+// whole ROI is detected anyway, so someone standing perfectly still is not lost
+// once they blend into the background.
+class MotionGate {
+    // Width of the analysis image the background model runs on
+    private static final int ANALYSIS_WIDTH = 160;
+    // How quickly the background absorbs changes (fraction per frame)
+    private static final double LEARNING_RATE = 0.05;
+    // Per-pixel gray-level difference that counts as change
+    private static final double PIXEL_THRESHOLD = 25;
+    // The changed box is grown by this fraction of its size on every side so a
+    // face whose edge moved is detected whole
+    private static final double MARGIN = 0.5;
+
+    private final Rect roi;
+    private final boolean motionGated;
+    private final double minChangedFraction;
+    private final int fullDetectionInterval;
+
+    private final Mat small = new Mat();
+    private final Mat smallFloat = new Mat();
+    private final Mat background = new Mat();
+    private final Mat difference = new Mat();
+    private final Mat mask = new Mat();
+    // Header onto the ROI of the last gray image, kept while gray's buffer and the ROI stay the same
+    private Mat view;
+    private long viewData;
+    private Rect viewArea;
+    private int framesSinceFullDetection;
+    private boolean lastWasFull;
+
+    // roi may be null for the whole frame.
+    MotionGate(Rect roi, boolean motionGated, double minChangedFraction, int fullDetectionInterval) {
+        this.roi = roi;
+        this.motionGated = motionGated;
+        this.minChangedFraction = minChangedFraction;
+        this.fullDetectionInterval = fullDetectionInterval;
+    }
+
+    // Returns the region of gray to run detection on, or null when nothing in
+    // the ROI changed and the frame can be skipped.
+    Rect regionToDetect(Mat gray) {
+        return regionToDetect(gray, 1.0);
+    }
+
+    // As regionToDetect(gray) for a gray image toFrame times smaller than the
+    // frame the ROI was configured on (e.g. the RTSP substream). The returned
+    // region is in gray's pixels.
+    Rect regionToDetect(Mat gray, double toFrame) {
+        Rect area = clip(roi == null ? new Rect(0, 0, gray.cols(), gray.rows()) : scale(roi, 1 / toFrame), gray);
+        lastWasFull = true;
+        if (!motionGated || area.area() == 0) {
+            return area;
+        }
+
+        double scale = Math.min(1.0, ANALYSIS_WIDTH / (double) area.width);
+        Imgproc.resize(roiView(gray, area), small, new Size(), scale, scale, Imgproc.INTER_AREA);
+        Imgproc.GaussianBlur(small, small, new Size(5, 5), 0);
+        small.convertTo(smallFloat, CvType.CV_32F);
+
+        if (background.empty() || !background.size().equals(smallFloat.size())) {
+            smallFloat.copyTo(background);
+            framesSinceFullDetection = 0;
+            return area;
+        }
+
+        Core.absdiff(smallFloat, background, difference);
+        Imgproc.accumulateWeighted(smallFloat, background, LEARNING_RATE);
+        Imgproc.threshold(difference, difference, PIXEL_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        difference.convertTo(mask, CvType.CV_8U);
+
+        if (++framesSinceFullDetection >= fullDetectionInterval) {
+            framesSinceFullDetection = 0;
+            return area;
+        }
+
+        int changed = Core.countNonZero(mask);
+        if (changed < minChangedFraction * mask.total()) {
+            return null;
+        }
+
+        // Map the changed box back to gray's resolution and grow it
+        Rect box = Imgproc.boundingRect(mask);
+        double boxWidth = box.width / scale;
+        double boxHeight = box.height / scale;
+        int x = (int) (area.x + box.x / scale - boxWidth * MARGIN);
+        int y = (int) (area.y + box.y / scale - boxHeight * MARGIN);
+        int width = (int) Math.ceil(boxWidth * (1 + 2 * MARGIN));
+        int height = (int) Math.ceil(boxHeight * (1 + 2 * MARGIN));
+        lastWasFull = false;
+        return intersect(new Rect(x, y, width, height), area);
+    }
+
+    // Whether the last non-null region was the whole ROI rather than a changed box.
+    boolean lastWasFull() {
+        return lastWasFull;
+    }
+
+    private Mat roiView(Mat gray, Rect area) {
+        if (view == null || viewData != gray.dataAddr() || !area.equals(viewArea)) {
+            if (view != null) {
+                view.release();
+            }
+            view = gray.submat(area);
+            viewData = gray.dataAddr();
+            viewArea = area;
+        }
+        return view;
+    }
+
+    void release() {
+        if (view != null) {
+            view.release();
+            view = null;
+        }
+        small.release();
+        smallFloat.release();
+        background.release();
+        difference.release();
+        mask.release();
+    }
+
+    static Rect scale(Rect rect, double factor) {
+        return new Rect((int) Math.round(rect.x * factor), (int) Math.round(rect.y * factor),
+                (int) Math.round(rect.width * factor), (int) Math.round(rect.height * factor));
+    }
+
+    private static Rect clip(Rect rect, Mat frame) {
+        return intersect(rect, new Rect(0, 0, frame.cols(), frame.rows()));
+    }
+
+    private static Rect intersect(Rect a, Rect b) {
+        int x = Math.max(a.x, b.x);
+        int y = Math.max(a.y, b.y);
+        int right = Math.min(a.x + a.width, b.x + b.width);
+        int bottom = Math.min(a.y + a.height, b.y + b.height);
+        return new Rect(x, y, Math.max(0, right - x), Math.max(0, bottom - y));
+    }
+}
@@ -0,0 +1,87 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvException;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs the frozen FaceNet graph in OpenCV's DNN module (Dnn.readNetFromTensorflow)
+// on the CPU, without the TensorFlow runtime. OpenCV only imports inference
+// graphs: a graph whose batch norm still switches on phase_train has to be
+// frozen for inference first (e.g. with TensorFlow's optimize_for_inference).
+class OpenCvDnnEmbedder implements FaceEmbedder {
+    private static final Size INPUT = new Size(INPUT_SIZE, INPUT_SIZE);
+    private static final Scalar NO_MEAN = new Scalar(0, 0, 0);
+
+    private final Net net;
+    private float[] output = new float[0];
+
+    // threads > 0 sizes OpenCV's process-wide thread pool, which face detection
+    // shares; <= 0 leaves it alone.
+    public OpenCvDnnEmbedder(String modelPath, int threads) {
+        try {
+            this.net = Dnn.readNetFromTensorflow(modelPath);
+        } catch (CvException e) {
+            throw new IllegalArgumentException("OpenCV could not load model " + modelPath + ": " + e.getMessage(), e);
+        }
+        net.setPreferableBackend(Dnn.DNN_BACKEND_OPENCV);
+        net.setPreferableTarget(Dnn.DNN_TARGET_CPU);
+        if (threads > 0) {
+            Core.setNumThreads(threads);
+        }
+    }
+
+    @Override
+    public String backend() {
+        return "opencv";
+    }
+
+    // The faces are packed into one NCHW blob; OpenCV converts the graph's
+    // NHWC layout itself.
+    @Override
+    public synchronized List<float[]> getEmbeddings(List<Mat> faces) {
+        int count = faces.size();
+        if (count == 0) {
+            return new ArrayList<>();
+        }
+        for (Mat face : faces) {
+            if (face.rows() != INPUT_SIZE || face.cols() != INPUT_SIZE || face.type() != CvType.CV_32FC3) {
+                throw new IllegalArgumentException("Expected a 160x160 CV_32FC3 face but got " + face);
+            }
+        }
+
+        Mat blob = Dnn.blobFromImages(faces, 1.0, INPUT, NO_MEAN, false, false);
+        Mat result = null;
+        try {
+            net.setInput(blob, "input");
+            result = net.forward("embeddings");
+            int outputSize = count * EMBEDDING_SIZE;
+            if (output.length < outputSize) {
+                output = new float[outputSize];
+            }
+            result.get(0, 0, output);
+
+            List<float[]> embeddings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                embeddings.add(Arrays.copyOfRange(output, i * EMBEDDING_SIZE, (i + 1) * EMBEDDING_SIZE));
+            }
+            return embeddings;
+        } finally {
+            blob.release();
+            if (result != null) {
+                result.release();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        // The Net is freed by its finalizer; it holds no other resources
+    }
+}
@@ -0,0 +1,56 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+
+// A captured frame travelling through the recognition pipeline.
+class PipelineFrame {
+    private static final Scalar KNOWN_COLOR = new Scalar(0, 255, 0);
+    private static final Scalar UNKNOWN_COLOR = new Scalar(0, 0, 255);
+
+    final long sequence;
+    final long capturedAt;
+    final Mat image;
+    // Where image goes back to when the frame is done with; null to release it
+    private final FramePool pool;
+    Rect[] faces = new Rect[0];
+    // Area the detector looked at; empty when the motion gate skipped the frame
+    Rect detectedRegion;
+    // Set by recognition; drawn onto image only if someone looks at the frame
+    List<FaceLabel> labels = List.of();
+    private boolean labelsDrawn;
+
+    PipelineFrame(long sequence, Mat image) {
+        this(sequence, image, null);
+    }
+
+    PipelineFrame(long sequence, Mat image, FramePool pool) {
+        this.sequence = sequence;
+        this.capturedAt = System.nanoTime();
+        this.image = image;
+        this.pool = pool;
+    }
+
+    // Draws the labels onto image, once; called by the stage that owns the frame.
+    void drawLabels() {
+        if (labelsDrawn) return;
+        labelsDrawn = true;
+        for (FaceLabel label : labels) {
+            Scalar color = label.known ? KNOWN_COLOR : UNKNOWN_COLOR;
+            Imgproc.rectangle(image, label.rect, color, 2);
+            Imgproc.putText(image, label.text, new Point(label.rect.x, label.rect.y - 10),
+                    Imgproc.FONT_HERSHEY_SIMPLEX, 0.9, color, 2);
+        }
+    }
+
+    void release() {
+        if (pool != null) {
+            pool.recycle(image);
+        } else {
+            image.release();
+        }
+    }
+}
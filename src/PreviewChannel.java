@@ -0,0 +1,162 @@
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The preview of one camera: annotated JPEGs for whoever is watching, made at
+// most maxFps times a second and only while someone is. The pipeline hands a
+// frame over with offer() (no copy) when wantsFrame() says one is due; the
+// channel's own thread draws the labels, scales, encodes and publishes it, and
+// viewers pick up the newest JPEG at their own pace. Nothing a viewer does can
+// hold up the pipeline: a slow viewer only skips frames.
+class PreviewChannel implements AutoCloseable {
+    private static final long POLL_MILLIS = 100;
+
+    private final String cameraId;
+    private final long intervalNanos;
+    private final int width;
+    private final MatOfInt encodeParams;
+    private final LatestWinsQueue<PipelineFrame> pending = new LatestWinsQueue<>(1);
+    private final AtomicLong nextDueNanos = new AtomicLong();
+    private final AtomicInteger viewers = new AtomicInteger();
+    private final StageStats encodeStats;
+    private final Thread encoder;
+    private volatile boolean open = true;
+
+    // Newest encoded frame and its number; guarded by this
+    private byte[] jpeg;
+    private long jpegSequence;
+
+    PreviewChannel(String cameraId, double maxFps, int width, int quality) {
+        this.cameraId = cameraId;
+        this.intervalNanos = (long) (1e9 / maxFps);
+        this.width = width;
+        this.encodeParams = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+        this.encodeStats = new StageStats("preview");
+        this.encoder = new Thread(this::encodeLoop, "preview-" + cameraId);
+        encoder.setDaemon(true);
+        encoder.start();
+    }
+
+    String cameraId() {
+        return cameraId;
+    }
+
+    // True at most once per frame interval, and never while nobody is watching.
+    // A true answer reserves the slot: the caller should offer() a frame.
+    boolean wantsFrame() {
+        if (viewers.get() == 0 || !open) return false;
+        long now = System.nanoTime();
+        long due = nextDueNanos.get();
+        return now - due >= 0 && nextDueNanos.compareAndSet(due, now + intervalNanos);
+    }
+
+    // Takes ownership of frame; it is released once encoded, or if a newer one replaces it first.
+    void offer(PipelineFrame frame) {
+        PipelineFrame replaced = pending.offer(frame);
+        if (replaced != null) {
+            replaced.release();
+        }
+    }
+
+    private void encodeLoop() {
+        Mat scaled = new Mat();
+        MatOfByte buffer = new MatOfByte();
+        try {
+            while (open) {
+                PipelineFrame frame = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame == null) continue;
+                long start = System.nanoTime();
+                try {
+                    frame.drawLabels();
+                    Mat image = frame.image;
+                    if (width > 0 && image.cols() > width) {
+                        double height = Math.round(image.rows() * (double) width / image.cols());
+                        Imgproc.resize(image, scaled, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+                        image = scaled;
+                    }
+                    Imgcodecs.imencode(".jpg", image, buffer, encodeParams);
+                } finally {
+                    frame.release();
+                }
+                publish(buffer.toArray());
+                encodeStats.record(start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            PipelineFrame left;
+            while ((left = pending.poll()) != null) {
+                left.release();
+            }
+            scaled.release();
+            buffer.release();
+        }
+    }
+
+    private synchronized void publish(byte[] encoded) {
+        jpeg = encoded;
+        jpegSequence++;
+        notifyAll();
+    }
+
+    // Number of the newest JPEG; a new viewer waits for the one after it rather than showing a stale frame.
+    synchronized long latestSequence() {
+        return jpegSequence;
+    }
+
+    // The newest JPEG if it is newer than frame number after, waiting up to
+    // timeoutMillis for one; null on timeout or once the channel is closed.
+    // Its frame number is written to sequenceOut[0].
+    synchronized byte[] awaitFrame(long after, long timeoutMillis, long[] sequenceOut) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (open && jpegSequence <= after) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return null;
+            wait(remaining);
+        }
+        if (!open) return null;
+        sequenceOut[0] = jpegSequence;
+        return jpeg;
+    }
+
+    void viewerJoined() {
+        viewers.incrementAndGet();
+    }
+
+    void viewerLeft() {
+        viewers.decrementAndGet();
+    }
+
+    public int viewers() {
+        return viewers.get();
+    }
+
+    public StageStats encodeStats() {
+        return encodeStats;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            encoder.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        encodeParams.release();
+    }
+}
@@ -0,0 +1,157 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Live MJPEG previews of the cameras on a loopback port:
+//   GET /preview/          lists the cameras
+//   GET /preview/<camera>  multipart/x-mixed-replace stream of annotated JPEGs
+// Each viewer gets its own thread writing the newest frame of its channel, so
+// a viewer on a slow link only ever delays itself. At most maxViewers streams
+// are served at once; the pipeline does no preview work while there are none.
+class PreviewServer implements AutoCloseable {
+    static final double DEFAULT_FPS = 5;
+    static final int DEFAULT_WIDTH = 640;
+    static final int DEFAULT_QUALITY = 70;
+    static final int DEFAULT_MAX_VIEWERS = 4;
+    private static final String BOUNDARY = "frame";
+    private static final long VIEWER_WAIT_MILLIS = 1000;
+
+    private final HttpServer server;
+    private final ExecutorService viewerThreads;
+    private final Map<String, PreviewChannel> channels = new ConcurrentHashMap<>();
+    private final double fps;
+    private final int width;
+    private final int quality;
+    private final int maxViewers;
+    private final Object viewerLock = new Object();
+    private int activeViewers;
+
+    PreviewServer(int port, double fps, int width, int quality, int maxViewers) throws IOException {
+        if (fps <= 0 || quality < 0 || quality > 100 || maxViewers < 1) {
+            throw new IllegalArgumentException("Invalid preview settings fps=" + fps + " quality=" + quality
+                    + " maxViewers=" + maxViewers);
+        }
+        this.fps = fps;
+        this.width = width;
+        this.quality = quality;
+        this.maxViewers = maxViewers;
+        this.viewerThreads = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "preview-viewer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(viewerThreads);
+        server.createContext("/preview/", this::handle);
+        server.start();
+    }
+
+    // Reads <prefix>preview.port, .fps, .width, .quality and .maxViewers.
+    // Null (the preview is off) when the port is 0 or cannot be opened.
+    static PreviewServer fromConfig(Config config, String prefix) {
+        int port = config.getInt(prefix + "preview.port", 0);
+        if (port <= 0) return null;
+        try {
+            PreviewServer server = new PreviewServer(port,
+                    config.getDouble(prefix + "preview.fps", DEFAULT_FPS),
+                    config.getInt(prefix + "preview.width", DEFAULT_WIDTH),
+                    config.getInt(prefix + "preview.quality", DEFAULT_QUALITY),
+                    config.getInt(prefix + "preview.maxViewers", DEFAULT_MAX_VIEWERS));
+            System.out.println("Preview on http://127.0.0.1:" + port + "/preview/");
+            return server;
+        } catch (IOException e) {
+            System.out.println("Error: Cannot start preview on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // The preview channel for a camera, created on first use; hand it to the camera's stream.
+    PreviewChannel channel(String cameraId) {
+        return channels.computeIfAbsent(cameraId, id -> new PreviewChannel(id, fps, width, quality));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String camera = exchange.getRequestURI().getPath().substring("/preview/".length());
+        if (camera.isEmpty()) {
+            StringBuilder index = new StringBuilder("<html><body>\n");
+            for (String id : channels.keySet()) {
+                index.append("<p><a href=\"/preview/").append(id).append("\">").append(id).append("</a></p>\n");
+            }
+            respond(exchange, 200, "text/html; charset=utf-8", index.append("</body></html>\n").toString());
+            return;
+        }
+        PreviewChannel channel = channels.get(camera);
+        if (channel == null) {
+            respond(exchange, 404, "text/plain; charset=utf-8", "no camera " + camera + "\n");
+            return;
+        }
+        synchronized (viewerLock) {
+            if (activeViewers >= maxViewers) {
+                respond(exchange, 503, "text/plain; charset=utf-8", "too many preview viewers\n");
+                return;
+            }
+            activeViewers++;
+        }
+        channel.viewerJoined();
+        try {
+            stream(exchange, channel);
+        } finally {
+            channel.viewerLeft();
+            synchronized (viewerLock) {
+                activeViewers--;
+            }
+            exchange.close();
+        }
+    }
+
+    // Writes the channel's newest frame as each one arrives, until the viewer
+    // goes away or the channel closes.
+    private static void stream(HttpExchange exchange, PreviewChannel channel) {
+        exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        long[] sequence = {channel.latestSequence()};
+        try {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            while (channel.isOpen()) {
+                byte[] jpeg = channel.awaitFrame(sequence[0], VIEWER_WAIT_MILLIS, sequence);
+                if (jpeg == null) continue;
+                out.write(("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " + jpeg.length
+                        + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(jpeg);
+                out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Viewer disconnected
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (PreviewChannel channel : channels.values()) {
+            channel.close();
+        }
+        server.stop(0);
+        viewerThreads.shutdownNow();
+    }
+}
@@ -0,0 +1,386 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Identities with any number of enrolled samples, matched through a few
+// prototypes each instead of every sample. Per identity it keeps the centroid
+// of its inlier samples and up to maxPrototypes prototypes: the centroids of a
+// small k-means over the inliers, so distinct looks (glasses, lighting, angle)
+// each keep a representative. A sample much farther from the centroid than its
+// siblings (median + 3 MAD of the centroid distances) is treated as a bad
+// enrolment (wrong person, bad crop) and left out.
+//
+// The prototypes live in an inner matcher (exact or HNSW), so a query compares
+// against at most maxPrototypes entries per identity however many photos were
+// enrolled. Only the centroid and prototypes are kept per identity: the samples
+// themselves stay in the EmbeddingStore, and are read back from it for the
+// identity being rebuilt whenever one changes. Which rows belong to whom is
+// indexed as rows are appended, so an add reads the new rows and that
+// identity's own, never the whole store.
+//
+// While an identity's prototypes are being replaced, a concurrent query can
+// briefly miss that identity.
+class PrototypeMatcher implements FaceMatcher {
+    static final int DEFAULT_PROTOTYPES = 3;
+    // Outlier pruning needs enough samples for the spread to mean anything
+    private static final int MIN_SAMPLES_FOR_PRUNING = 4;
+    private static final double OUTLIER_MADS = 3.0;
+    private static final int KMEANS_ITERATIONS = 10;
+
+    private final FaceMatcher index;
+    private final EmbeddingStore store;
+    private final int maxPrototypes;
+    private final Map<String, Identity> identities = new LinkedHashMap<>();
+    // Store rows of each name, covering the first indexedRows rows of the store
+    private final Map<String, List<Integer>> rows = new LinkedHashMap<>();
+    private int indexedRows;
+
+    private static class Identity {
+        int samples;
+        float[] centroid;
+        int prototypes;
+        int pruned;
+    }
+
+    // store holds the samples of every identity added to this matcher.
+    PrototypeMatcher(FaceMatcher index, EmbeddingStore store, int maxPrototypes) {
+        if (maxPrototypes < 1) {
+            throw new IllegalArgumentException("maxPrototypes must be at least 1");
+        }
+        this.index = index;
+        this.store = store;
+        this.maxPrototypes = maxPrototypes;
+    }
+
+    // Rebuilds name from its rows in the store, which writers append the new
+    // sample to first. A sample the store does not have is still matched, but
+    // only until name is next rebuilt.
+    @Override
+    public void add(String name, float[] embedding) {
+        synchronized (identities) {
+            List<float[]> samples;
+            synchronized (store) {
+                samples = samples(store, rowsOf(name));
+            }
+            if (!contains(samples, embedding)) {
+                samples.add(embedding.clone());
+            }
+            Identity identity = identities.computeIfAbsent(name, n -> new Identity());
+            if (samples.size() <= maxPrototypes && samples.size() < MIN_SAMPLES_FOR_PRUNING
+                    && identity.prototypes == samples.size() - 1) {
+                // Few enough samples to match them all; nothing to replace
+                identity.samples = samples.size();
+                identity.centroid = mean(samples);
+                identity.prototypes++;
+                index.add(name, embedding);
+                return;
+            }
+            if (identity.prototypes > 0) {
+                index.remove(name);
+            }
+            publish(name, identity, samples);
+        }
+    }
+
+    // Builds every identity in store once, rather than re-clustering on each
+    // sample. Each identity's samples are read, clustered and dropped in turn.
+    @Override
+    public void addAll(EmbeddingStore store) {
+        synchronized (identities) {
+            Map<String, List<Integer>> byName;
+            if (store == this.store) {
+                synchronized (store) {
+                    indexRows();
+                    byName = rows;
+                }
+            } else {
+                byName = rowsByName(store);
+            }
+            for (Map.Entry<String, List<Integer>> entry : byName.entrySet()) {
+                Identity identity = identities.computeIfAbsent(entry.getKey(), n -> new Identity());
+                if (identity.prototypes > 0) {
+                    index.remove(entry.getKey());
+                }
+                publish(entry.getKey(), identity, samples(store, entry.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public int remove(String name) {
+        synchronized (identities) {
+            Identity identity = identities.remove(name);
+            index.remove(name);
+            // The store's rows shift when name's are deleted; index them afresh on the next add
+            rows.clear();
+            indexedRows = 0;
+            return identity == null ? 0 : identity.samples;
+        }
+    }
+
+    @Override
+    public FaceMatch nearest(float[] query) {
+        return index.nearest(query);
+    }
+
+    // Up to k distinct identities, each at the distance of its closest prototype.
+    @Override
+    public List<FaceMatch> nearest(float[] query, int k) {
+        List<FaceMatch> matches = new ArrayList<>(k);
+        Set<String> seen = new HashSet<>();
+        for (FaceMatch match : index.nearest(query, k * maxPrototypes)) {
+            if (seen.add(match.name)) {
+                matches.add(match);
+                if (matches.size() == k) break;
+            }
+        }
+        return matches;
+    }
+
+    // Number of enrolled samples, not of prototypes.
+    @Override
+    public int size() {
+        synchronized (identities) {
+            int samples = 0;
+            for (Identity identity : identities.values()) {
+                samples += identity.samples;
+            }
+            return samples;
+        }
+    }
+
+    public int identities() {
+        synchronized (identities) {
+            return identities.size();
+        }
+    }
+
+    public int prototypes() {
+        synchronized (identities) {
+            int prototypes = 0;
+            for (Identity identity : identities.values()) {
+                prototypes += identity.prototypes;
+            }
+            return prototypes;
+        }
+    }
+
+    // Samples currently excluded as outliers.
+    public int prunedSamples() {
+        synchronized (identities) {
+            int pruned = 0;
+            for (Identity identity : identities.values()) {
+                pruned += identity.pruned;
+            }
+            return pruned;
+        }
+    }
+
+    // Centroid of name's inlier samples, or null if it is not enrolled.
+    public float[] centroid(String name) {
+        synchronized (identities) {
+            Identity identity = identities.get(name);
+            return identity == null ? null : identity.centroid.clone();
+        }
+    }
+
+    // Recomputes name's centroid and prototypes from its samples and adds the prototypes to the index.
+    private void publish(String name, Identity identity, List<float[]> samples) {
+        List<float[]> inliers = pruneOutliers(samples);
+        identity.samples = samples.size();
+        identity.pruned = samples.size() - inliers.size();
+        identity.centroid = mean(inliers);
+        List<float[]> prototypes = inliers.size() <= maxPrototypes ? inliers : kMeans(inliers, maxPrototypes);
+        identity.prototypes = prototypes.size();
+        for (float[] prototype : prototypes) {
+            index.add(name, prototype);
+        }
+    }
+
+    private List<Integer> rowsOf(String name) {
+        synchronized (store) {
+            indexRows();
+            return rows.getOrDefault(name, List.of());
+        }
+    }
+
+    // Indexes the rows appended to the store since the last call. Called with the store's lock held.
+    private void indexRows() {
+        if (store.size() < indexedRows) {
+            // Rows were removed behind this matcher's back, so the indexed ones may have moved
+            rows.clear();
+            indexedRows = 0;
+        }
+        for (int row = indexedRows; row < store.size(); row++) {
+            rows.computeIfAbsent(store.name(row), n -> new ArrayList<>()).add(row);
+        }
+        indexedRows = store.size();
+    }
+
+    private static Map<String, List<Integer>> rowsByName(EmbeddingStore store) {
+        synchronized (store) {
+            Map<String, List<Integer>> rows = new LinkedHashMap<>();
+            for (int row = 0; row < store.size(); row++) {
+                rows.computeIfAbsent(store.name(row), n -> new ArrayList<>()).add(row);
+            }
+            return rows;
+        }
+    }
+
+    private static List<float[]> samples(EmbeddingStore store, List<Integer> rows) {
+        synchronized (store) {
+            List<float[]> samples = new ArrayList<>(rows.size() + 1);
+            for (int row : rows) {
+                float[] embedding = new float[store.dimension()];
+                store.vector(row, embedding);
+                samples.add(embedding);
+            }
+            return samples;
+        }
+    }
+
+    private static boolean contains(List<float[]> samples, float[] embedding) {
+        for (float[] sample : samples) {
+            if (Arrays.equals(sample, embedding)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<float[]> pruneOutliers(List<float[]> samples) {
+        if (samples.size() < MIN_SAMPLES_FOR_PRUNING) {
+            return samples;
+        }
+        float[] centroid = mean(samples);
+        double[] distances = new double[samples.size()];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = Math.sqrt(squaredDistance(samples.get(i), centroid));
+        }
+        double median = median(distances.clone());
+        double[] deviations = new double[distances.length];
+        for (int i = 0; i < distances.length; i++) {
+            deviations[i] = Math.abs(distances[i] - median);
+        }
+        // A floor on the spread, so near-identical samples do not make every
+        // slightly different one an outlier
+        double mad = Math.max(median(deviations), 0.05 * median);
+        double limit = median + OUTLIER_MADS * mad;
+
+        List<float[]> inliers = new ArrayList<>(samples.size());
+        for (int i = 0; i < distances.length; i++) {
+            if (distances[i] <= limit) {
+                inliers.add(samples.get(i));
+            }
+        }
+        return inliers;
+    }
+
+    // k-means seeded by farthest-point selection. The resulting means are scaled
+    // back to their members' average length, keeping them on the unit sphere
+    // for normalised embeddings such as FaceNet's.
+    private static List<float[]> kMeans(List<float[]> samples, int k) {
+        int dimension = samples.get(0).length;
+        List<float[]> centres = new ArrayList<>(k);
+        centres.add(samples.get(0).clone());
+        double[] closest = new double[samples.size()];
+        Arrays.fill(closest, Double.MAX_VALUE);
+        while (centres.size() < k) {
+            float[] last = centres.get(centres.size() - 1);
+            int farthest = 0;
+            for (int i = 0; i < samples.size(); i++) {
+                closest[i] = Math.min(closest[i], squaredDistance(samples.get(i), last));
+                if (closest[i] > closest[farthest]) {
+                    farthest = i;
+                }
+            }
+            centres.add(samples.get(farthest).clone());
+        }
+
+        int[] assignment = new int[samples.size()];
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            boolean changed = false;
+            for (int i = 0; i < samples.size(); i++) {
+                int best = 0;
+                double bestDistance = Double.MAX_VALUE;
+                for (int c = 0; c < k; c++) {
+                    double d = squaredDistance(samples.get(i), centres.get(c));
+                    if (d < bestDistance) {
+                        bestDistance = d;
+                        best = c;
+                    }
+                }
+                if (iteration == 0 || assignment[i] != best) {
+                    changed = true;
+                    assignment[i] = best;
+                }
+            }
+            if (!changed) break;
+
+            for (int c = 0; c < k; c++) {
+                List<float[]> members = new ArrayList<>();
+                for (int i = 0; i < samples.size(); i++) {
+                    if (assignment[i] == c) {
+                        members.add(samples.get(i));
+                    }
+                }
+                if (!members.isEmpty()) {
+                    centres.set(c, mean(members));
+                }
+            }
+        }
+
+        List<float[]> prototypes = new ArrayList<>(k);
+        for (int c = 0; c < k; c++) {
+            double length = 0;
+            int members = 0;
+            for (int i = 0; i < samples.size(); i++) {
+                if (assignment[i] == c) {
+                    length += norm(samples.get(i));
+                    members++;
+                }
+            }
+            if (members == 0) continue;
+            float[] centre = centres.get(c);
+            double scale = (length / members) / norm(centre);
+            if (Double.isFinite(scale)) {
+                for (int d = 0; d < dimension; d++) {
+                    centre[d] *= (float) scale;
+                }
+            }
+            prototypes.add(centre);
+        }
+        return prototypes;
+    }
+
+    private static float[] mean(List<float[]> vectors) {
+        float[] mean = new float[vectors.get(0).length];
+        for (float[] vector : vectors) {
+            for (int d = 0; d < mean.length; d++) {
+                mean[d] += vector[d];
+            }
+        }
+        for (int d = 0; d < mean.length; d++) {
+            mean[d] /= vectors.size();
+        }
+        return mean;
+    }
+
+    private static double squaredDistance(float[] a, float[] b) {
+        return DistanceKernel.squaredL2(a, 0, b, 0, a.length);
+    }
+
+    private static double norm(float[] v) {
+        return Math.sqrt(DistanceKernel.scalarDot(v, 0, v, 0, v.length));
+    }
+
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        int middle = values.length / 2;
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+}
@@ -0,0 +1,222 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Linear scan over int8 codes instead of floats, for galleries too large to
+// keep (or scan) as float matrices.
+//
+// Each row is quantised on its own: code = round(x / scale) with
+// scale = max|x| / 127, so a 128-d embedding takes 128 bytes plus its scale and
+// squared norm. The first pass compares the float query with every row's codes
+// (asymmetric distance, so the query loses no precision) and keeps the closest
+// rerank candidates. Those are then re-ranked by the exact float distance, so
+// the result is the exact scan's whenever the true match is among them.
+//
+// The float rows are only kept for re-ranking. With rerank = 0 they are not
+// stored at all: the gallery is about a quarter of the size, and distances are
+// the ones recovered from the codes (off by at most about 0.002 for unit-length
+// embeddings in MatcherBenchmark).
+class QuantizedMatcher implements FaceMatcher {
+    static final int DEFAULT_RERANK = 32;
+    private static final float CODE_MAX = 127f;
+
+    private final int rerank;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private String[] names = new String[0];
+    private byte[] codes = new byte[0];
+    // Per row: code scale, and the squared norm of the dequantised row
+    private float[] scales = new float[0];
+    private float[] norms = new float[0];
+    private float[] matrix = new float[0];
+    private int dimension = -1;
+    private int size;
+
+    public QuantizedMatcher() {
+        this(DEFAULT_RERANK);
+    }
+
+    // rerank candidates from the first pass are re-ranked with float distances; 0 keeps no floats.
+    public QuantizedMatcher(int rerank) {
+        if (rerank < 0) {
+            throw new IllegalArgumentException("Invalid rerank " + rerank);
+        }
+        this.rerank = rerank;
+    }
+
+    @Override
+    public void add(String name, float[] embedding) {
+        lock.writeLock().lock();
+        try {
+            if (dimension < 0) {
+                dimension = embedding.length;
+            } else if (embedding.length != dimension) {
+                throw new IllegalArgumentException("Expected " + dimension + "-d embedding but got " + embedding.length);
+            }
+            if (size == names.length) {
+                int capacity = Math.max(16, size * 2);
+                names = Arrays.copyOf(names, capacity);
+                codes = Arrays.copyOf(codes, capacity * dimension);
+                scales = Arrays.copyOf(scales, capacity);
+                norms = Arrays.copyOf(norms, capacity);
+                if (rerank > 0) {
+                    matrix = Arrays.copyOf(matrix, capacity * dimension);
+                }
+            }
+            names[size] = name;
+            quantize(embedding, size);
+            if (rerank > 0) {
+                System.arraycopy(embedding, 0, matrix, size * dimension, dimension);
+            }
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int remove(String name) {
+        lock.writeLock().lock();
+        try {
+            // Compact the surviving rows in place
+            int kept = 0;
+            for (int row = 0; row < size; row++) {
+                if (names[row].equals(name)) continue;
+                if (kept != row) {
+                    names[kept] = names[row];
+                    System.arraycopy(codes, row * dimension, codes, kept * dimension, dimension);
+                    scales[kept] = scales[row];
+                    norms[kept] = norms[row];
+                    if (rerank > 0) {
+                        System.arraycopy(matrix, row * dimension, matrix, kept * dimension, dimension);
+                    }
+                }
+                kept++;
+            }
+            int removed = size - kept;
+            Arrays.fill(names, kept, size, null);
+            size = kept;
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public FaceMatch nearest(float[] query) {
+        List<FaceMatch> matches = nearest(query, 1);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    @Override
+    public List<FaceMatch> nearest(float[] query, int k) {
+        lock.readLock().lock();
+        try {
+            int candidates = Math.max(Math.max(k, rerank), 0);
+            int[] rows = new int[candidates];
+            float[] distances = new float[candidates];
+            int found = scanCodes(query, candidates, rows, distances);
+
+            if (rerank > 0) {
+                for (int i = 0; i < found; i++) {
+                    distances[i] = DistanceKernel.squaredL2(query, 0, matrix, rows[i] * dimension, dimension);
+                }
+                sortByDistance(rows, distances, found);
+            }
+            int returned = Math.max(Math.min(k, found), 0);
+            List<FaceMatch> matches = new ArrayList<>(returned);
+            for (int i = 0; i < returned; i++) {
+                matches.add(new FaceMatch(names[rows[i]], Math.sqrt(Math.max(0f, distances[i]))));
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Heap used by the rows in the gallery: codes, scales and norms, the float
+    // rows kept for re-ranking and the name references (the names themselves
+    // are shared with the store). Spare capacity is not counted.
+    long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            int floatsPerRow = 2 + (rerank > 0 ? dimension : 0);
+            return (long) size * (dimension + floatsPerRow * Float.BYTES + 4);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void quantize(float[] embedding, int row) {
+        float maxAbs = 0f;
+        for (float x : embedding) {
+            maxAbs = Math.max(maxAbs, Math.abs(x));
+        }
+        float scale = maxAbs == 0f ? 1f : maxAbs / CODE_MAX;
+        int offset = row * dimension;
+        long normCodes = 0;
+        for (int i = 0; i < dimension; i++) {
+            int code = Math.round(embedding[i] / scale);
+            codes[offset + i] = (byte) code;
+            normCodes += code * code;
+        }
+        scales[row] = scale;
+        norms[row] = normCodes * scale * scale;
+    }
+
+    // First pass: the k rows with the smallest approximate squared distance
+    // |q|^2 + |r|^2 - 2 scale q.codes, sorted ascending. Returns how many were
+    // found, 0 for k <= 0.
+    private int scanCodes(float[] query, int k, int[] outRows, float[] outDistances) {
+        if (k <= 0) {
+            return 0;
+        }
+        float queryNorm = DistanceKernel.scalarDot(query, 0, query, 0, dimension);
+        int found = 0;
+        float bound = Float.POSITIVE_INFINITY;
+        for (int row = 0; row < size; row++) {
+            float dot = DistanceKernel.dotInt8(query, 0, codes, row * dimension, dimension);
+            float distance = queryNorm + norms[row] - 2f * scales[row] * dot;
+            if (found == k && distance >= bound) continue;
+
+            // Insertion into the sorted candidate list
+            int position = found < k ? found++ : k - 1;
+            while (position > 0 && outDistances[position - 1] > distance) {
+                outDistances[position] = outDistances[position - 1];
+                outRows[position] = outRows[position - 1];
+                position--;
+            }
+            outDistances[position] = distance;
+            outRows[position] = row;
+            if (found == k) {
+                bound = outDistances[k - 1];
+            }
+        }
+        return found;
+    }
+
+    private static void sortByDistance(int[] rows, float[] distances, int count) {
+        for (int i = 1; i < count; i++) {
+            float distance = distances[i];
+            int row = rows[i];
+            int j = i - 1;
+            while (j >= 0 && distances[j] > distance) {
+                distances[j + 1] = distances[j];
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            distances[j + 1] = distance;
+            rows[j + 1] = row;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.opencv.core.Core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Runs every camera listed in the config in one process. All cameras share a
+// single FaceNet session, one gallery/matcher and one micro-batching scheduler,
+// so adding a door costs a capture pipeline and a cascade, not another model.
+// Unlocks from every camera go through one DoorActuator and its pooled client.
+//
+// The gallery is live: it reloads when the database file changes, and with
+// admin.port set, a loopback-only admin endpoint accepts
+//   POST /gallery/reload
+//   POST /gallery/revoke?name=<name>
+// With metrics.port set, GET /metrics on that port serves every camera's stage
+// timers, queues, face and distance histograms and the unlock outcomes in the
+// Prometheus text format. With preview.port set, a loopback MJPEG preview of
+// each camera is served at /preview/<camera>; the server itself never renders.
+public class RecognitionServer {
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+    private final Config config;
+    private final FaceEmbedder faceEmbedder;
+    private final EmbeddingBatcher embeddingBatcher;
+    private final LiveGallery faceMatcher;
+    private final DoorActuator doorActuator;
+    private final List<CameraStream> streams = new ArrayList<>();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private volatile boolean running;
+    private long[] lastProcessed;
+    private long lastReportNanos;
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public RecognitionServer(Config config) {
+        this.config = config;
+        this.faceEmbedder = FaceEmbedder.fromConfig(config, "", config.get("model", "facenet_model.pb"));
+        this.embeddingBatcher = new EmbeddingBatcher(faceEmbedder,
+                config.getInt("embedding.maxBatchSize", CameraStream.MAX_BATCH_SIZE),
+                config.getLong("embedding.maxWaitMillis", CameraStream.MAX_BATCH_WAIT_MILLIS));
+        EmbeddingStore store = EmbeddingStore.open(config.get("database", "face_database.bin"),
+                FaceEmbedder.EMBEDDING_SIZE);
+        this.faceMatcher = new LiveGallery(store, config.get("matcher", "exact"),
+                config.getInt("matcher.prototypes", PrototypeMatcher.DEFAULT_PROTOTYPES), config, "matcher.",
+                config.getLong("gallery.pollMillis", FaceRecognition.GALLERY_POLL_MILLIS));
+
+        this.doorActuator = DoorActuator.fromConfig(config);
+
+        String cascadePath = config.get("cascade", "haarcascade_frontalface_default.xml");
+        for (CameraConfig camera : config.cameras()) {
+            FaceDetector detector = FaceDetector.fromConfig(config, "detection.", cascadePath);
+            streams.add(new CameraStream(camera, detector, FacePreprocessor.fromConfig(config, "face."),
+                    EmbeddingCache.fromConfig(config, ""), embeddingBatcher, faceMatcher, doorActuator));
+        }
+        if (streams.isEmpty()) {
+            throw new IllegalArgumentException("No cameras configured; set cameras=<id>,<id>...");
+        }
+        registerMetrics();
+    }
+
+    // Blocks until stop() is called. Each camera gets its own worker, which
+    // reopens the stream after it drops.
+    public void start() throws InterruptedException {
+        running = true;
+        // Sized pool rather than virtual threads: capture blocks inside native
+        // VideoCapture.read, which would pin a virtual thread's carrier anyway
+        ExecutorService workers = Executors.newFixedThreadPool(streams.size(), r -> {
+            Thread t = new Thread(r);
+            t.setName("camera-worker-" + t.getId());
+            return t;
+        });
+        for (CameraStream stream : streams) {
+            workers.submit(() -> runCamera(stream));
+        }
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "server-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = config.getLong("stats.intervalSeconds", 10);
+        reporter.scheduleAtFixedRate(this::printStats, interval, interval, TimeUnit.SECONDS);
+
+        HttpServer admin = startAdmin(config.getInt("admin.port", 0));
+        MetricsServer metricsServer = MetricsServer.start(metrics, config.getInt("metrics.port", 0));
+        PreviewServer previewServer = PreviewServer.fromConfig(config, "");
+        if (previewServer != null) {
+            for (CameraStream stream : streams) {
+                stream.setPreview(previewServer.channel(stream.cameraId()));
+            }
+        }
+
+        System.out.println("Recognition server running " + streams.size() + " camera(s)");
+        try {
+            while (running) {
+                Thread.sleep(1000);
+            }
+        } finally {
+            for (CameraStream stream : streams) {
+                stream.stop();
+            }
+            workers.shutdown();
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+            reporter.shutdownNow();
+            if (admin != null) {
+                admin.stop(0);
+            }
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+            if (previewServer != null) {
+                previewServer.close();
+            }
+            doorActuator.close();
+            faceMatcher.close();
+            embeddingBatcher.close();
+            faceEmbedder.close();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        for (CameraStream stream : streams) {
+            stream.stop();
+        }
+    }
+
+    private void registerMetrics() {
+        for (CameraStream stream : streams) {
+            stream.registerMetrics(metrics);
+        }
+        doorActuator.registerMetrics(metrics);
+        metrics.gauge("opensesame_inference_queue_depth", "Faces waiting for the shared inference scheduler", "",
+                embeddingBatcher::pendingFaces);
+        metrics.gauge("opensesame_gallery_entries", "Embeddings the matcher searches", "", faceMatcher::size);
+        metrics.gauge("opensesame_gallery_reload_seconds", "Duration of the last gallery rebuild", "",
+                () -> faceMatcher.lastReloadMillis() / 1000);
+    }
+
+    // The registry behind metrics.port, for embedding the server elsewhere.
+    public MetricsRegistry metrics() {
+        return metrics;
+    }
+
+    private HttpServer startAdmin(int port) {
+        if (port <= 0) return null;
+        try {
+            HttpServer admin = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+            admin.createContext("/gallery/reload", exchange -> {
+                if (!isPost(exchange)) return;
+                faceMatcher.requestReload();
+                respond(exchange, 202, "reload scheduled\n");
+            });
+            admin.createContext("/gallery/revoke", exchange -> {
+                if (!isPost(exchange)) return;
+                String name = queryParameter(exchange, "name");
+                if (name == null) {
+                    respond(exchange, 400, "missing name\n");
+                    return;
+                }
+                int removed = faceMatcher.revoke(name);
+                respond(exchange, 200, "revoked " + name + ", " + removed + " embeddings removed\n");
+            });
+            admin.start();
+            System.out.println("Admin endpoint on http://127.0.0.1:" + port);
+            return admin;
+        } catch (IOException e) {
+            System.out.println("Error: Cannot start admin endpoint on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isPost(HttpExchange exchange) throws IOException {
+        if ("POST".equals(exchange.getRequestMethod())) {
+            return true;
+        }
+        respond(exchange, 405, "use POST\n");
+        return false;
+    }
+
+    private static String queryParameter(HttpExchange exchange, String key) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(key)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void runCamera(CameraStream stream) {
+        while (running) {
+            stream.startStream(false, false);
+            if (!running) break;
+            System.out.println("Camera " + stream.cameraId() + " disconnected, reconnecting in "
+                    + RECONNECT_DELAY_MILLIS + " ms");
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Per-camera throughput since the previous report, plus shared scheduler depth.
+    private synchronized void printStats() {
+        long now = System.nanoTime();
+        if (lastProcessed == null) {
+            lastProcessed = new long[streams.size()];
+            lastReportNanos = now;
+            return;
+        }
+        double seconds = (now - lastReportNanos) / 1e9;
+        lastReportNanos = now;
+        System.out.println("Server: " + embeddingBatcher.pendingFaces() + " faces waiting for inference, "
+                + doorActuator.statsLine());
+        for (int i = 0; i < streams.size(); i++) {
+            CameraStream stream = streams.get(i);
+            long processed = stream.processedFrames();
+            double fps = (processed - lastProcessed[i]) / seconds;
+            lastProcessed[i] = processed;
+            System.out.printf("  %.1f fps  %s%n", fps, stream.statsLine());
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String configPath = args.length > 0 ? args[0] : "opensesame.properties";
+        RecognitionServer server = new RecognitionServer(Config.load(configPath));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+    }
+}
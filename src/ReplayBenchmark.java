@@ -0,0 +1,338 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Feeds recorded footage through the CameraStream pipeline (motion gate,
+// detection, embedding, matching) without a camera or a window, and reports
+// throughput, faces per second and p50/p99 latency per stage. No unlocks are
+// sent. Two modes:
+//
+//   sequential  (default) every frame goes through the pipeline, one at a time,
+//               as fast as possible. Reproducible: the same input gives the same
+//               detections and embeddings on every run.
+//   --realtime  frames are released at the footage's frame rate and the stages
+//               run concurrently, dropping frames they cannot keep up with the
+//               way they would on a live camera.
+//
+// The source is a video file, a directory of images, or "synthetic": generated
+// 1280x720 frames in which Ali.jpg walks in, stands still and leaves, so the
+// harness runs in CI with nothing but the repository. Without facenet_model.pb
+// the stand-in graph embeds the faces: stage timings stay comparable from run
+// to run, but nothing is recognised. In sequential mode a frame that does not
+// come out of the pipeline within 30 s stops the run with exit status 1.
+//
+// "capture" is the time spent waiting for the source: pacing in realtime mode,
+// the previous frame finishing in sequential mode, plus decoding.
+//
+// Usage: ReplayBenchmark <video | image dir | synthetic> [--realtime] [--fps N]
+//            [--frames N] [--loops N] [--no-gate] [--config opensesame.properties]
+public class ReplayBenchmark {
+    private static final int SYNTHETIC_FRAMES = 300;
+    private static final double DEFAULT_FPS = 25;
+    private static final long DRAIN_TIMEOUT_MILLIS = 5000;
+    // Sequential mode fails when one frame takes longer than this
+    private static final long FRAME_TIMEOUT_MILLIS = 30_000;
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: ReplayBenchmark <video | image dir | synthetic> [--realtime] [--fps N] "
+                    + "[--frames N] [--loops N] [--no-gate] [--config opensesame.properties]");
+            return;
+        }
+        String input = args[0];
+        boolean realtime = false;
+        boolean gate = true;
+        double fps = 0;
+        int maxFrames = Integer.MAX_VALUE;
+        int loops = 1;
+        String configPath = new File("opensesame.properties").exists() ? "opensesame.properties" : null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--realtime": realtime = true; break;
+                case "--no-gate": gate = false; break;
+                case "--fps": fps = Double.parseDouble(args[++i]); break;
+                case "--frames": maxFrames = Integer.parseInt(args[++i]); break;
+                case "--loops": loops = Integer.parseInt(args[++i]); break;
+                case "--config": configPath = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        Config config = configPath == null ? new Config(new Properties()) : Config.load(configPath);
+
+        Replay replay = Replay.open(input, maxFrames, loops);
+        if (fps <= 0) {
+            fps = replay.fps > 0 ? replay.fps : DEFAULT_FPS;
+        }
+
+        // No authorized names, so nothing is ever sent to the door URL
+        CameraConfig camera = new CameraConfig("replay", input, null, "http://127.0.0.1:9/unused", "", "",
+                new HashSet<>(), null, gate, CameraConfig.DEFAULT_MOTION_MIN_CHANGE,
+                CameraConfig.DEFAULT_FULL_DETECTION_INTERVAL);
+        String cascadePath = config.get("cascade", "haarcascade_frontalface_default.xml");
+        EmbeddingBatcher batcher = new EmbeddingBatcher(
+                FaceEmbedder.fromConfig(config, "", StandInModel.orStandIn(config.get("model", "facenet_model.pb"))),
+                config.getInt("embedding.maxBatchSize", CameraStream.MAX_BATCH_SIZE),
+                config.getLong("embedding.maxWaitMillis", CameraStream.MAX_BATCH_WAIT_MILLIS));
+        LiveGallery gallery = new LiveGallery(
+                EmbeddingStore.open(config.get("database", "face_database.bin"), FaceEmbedder.EMBEDDING_SIZE),
+                config.get("matcher", "exact"),
+                config.getInt("matcher.prototypes", PrototypeMatcher.DEFAULT_PROTOTYPES), config, "matcher.", 0);
+        DoorActuator doors = new DoorActuator();
+        CameraStream stream = new CameraStream(camera, FaceDetector.fromConfig(config, "detection.", cascadePath),
+                FacePreprocessor.fromConfig(config, "face."), EmbeddingCache.fromConfig(config, ""),
+                batcher, gallery, doors);
+
+        // The first session run initialises the graph; keep it out of the percentiles
+        Mat warmUp = Mat.zeros(FaceEmbedder.INPUT_SIZE, FaceEmbedder.INPUT_SIZE, CvType.CV_32FC3);
+        batcher.embedAll(List.of(warmUp));
+        warmUp.release();
+
+        LongAdder detectedFaces = new LongAdder();
+        Semaphore inFlight = new Semaphore(1);
+        AtomicBoolean stalled = new AtomicBoolean();
+        boolean sequential = !realtime;
+        stream.setFrameListener(frame -> {
+            detectedFaces.add(frame.faces.length);
+            if (sequential) {
+                inFlight.release();
+            }
+        });
+
+        long frameNanos = (long) (1e9 / fps);
+        long[] issued = new long[1];
+        long start = System.nanoTime();
+        FrameSource source = frame -> {
+            try {
+                if (sequential) {
+                    // The permit comes back when the previous frame leaves the pipeline. A frame
+                    // that failed or was dropped never does; stop instead of waiting forever
+                    if (!inFlight.tryAcquire(FRAME_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        System.out.printf("Error: frame %d did not come out of the pipeline within %d ms%n",
+                                issued[0], FRAME_TIMEOUT_MILLIS);
+                        stalled.set(true);
+                        return false;
+                    }
+                } else {
+                    long due = start + issued[0] * frameNanos;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                if (replay.next(frame)) {
+                    issued[0]++;
+                    return true;
+                }
+                // Let the last frames finish before the pipeline is stopped. Sequentially,
+                // acquiring the permit above already waited for the last one
+                if (!sequential) {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+                    while (stream.processedFrames() + stream.droppedFrames() < issued[0]
+                            && System.nanoTime() < deadline) {
+                        Thread.sleep(1);
+                    }
+                }
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        };
+        stream.startStream(source, false, false);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%s: %d frames of %s, %s%s%n", input, issued[0], replay.frameSize,
+                realtime ? String.format("realtime at %.1f fps", fps) : "sequential", gate ? "" : ", motion gate off");
+        System.out.printf("%d processed, %d dropped in %.1f s: %.1f fps%n",
+                stream.processedFrames(), stream.droppedFrames(), seconds, stream.processedFrames() / seconds);
+        System.out.printf("faces: %d detected (%.1f/s), %d embedded (%.1f/s), %d reused from tracks, %d from cache, "
+                        + "%d skipped for quality%n",
+                detectedFaces.sum(), detectedFaces.sum() / seconds, stream.embeddedFaces(),
+                stream.embeddedFaces() / seconds, stream.skippedEmbeddings(), stream.embeddingCache().hits(),
+                stream.facePreprocessor().skipped());
+        if (stream.facePreprocessor().checksQuality()) {
+            System.out.println(stream.facePreprocessor().statsLine());
+        }
+        System.out.printf("motion gate skipped %.0f%% of frames%n", stream.gatedFraction() * 100);
+        System.out.printf("%-22s %8s %8s %8s %8s %8s%n", "stage", "count", "avg ms", "p50 ms", "p99 ms", "max ms");
+        for (StageStats stats : List.of(stream.captureStats(), stream.detectionStats(), stream.convertStats(),
+                stream.detectStats(), stream.embeddingStats(), stream.preprocessStats(), stream.inferenceStats(),
+                stream.matchStats(), stream.endToEndStats())) {
+            System.out.printf("%-22s %8d %8.2f %8.2f %8.2f %8.2f%n", stats.name(), stats.processed(),
+                    stats.averageMillis(), stats.percentileMillis(50), stats.percentileMillis(99), stats.maxMillis());
+        }
+
+        replay.close();
+        doors.close();
+        gallery.close();
+        batcher.close();
+        if (stalled.get()) {
+            System.exit(1);
+        }
+    }
+
+    // Frames of a video file, an image directory or the synthetic scene, repeated loops times.
+    private static class Replay {
+        private final VideoCapture video;
+        private final List<File> images;
+        private final Synthetic synthetic;
+        private final int maxFrames;
+        private final int loops;
+        private int frame;
+        private int loop;
+        double fps;
+        String frameSize = "?";
+
+        private Replay(VideoCapture video, List<File> images, Synthetic synthetic, int maxFrames, int loops) {
+            this.video = video;
+            this.images = images;
+            this.synthetic = synthetic;
+            this.maxFrames = maxFrames;
+            this.loops = loops;
+        }
+
+        static Replay open(String source, int maxFrames, int loops) {
+            if (source.equals("synthetic")) {
+                return new Replay(null, null, new Synthetic(), Math.min(maxFrames, SYNTHETIC_FRAMES), loops);
+            }
+            File file = new File(source);
+            if (file.isDirectory()) {
+                File[] files = file.listFiles(f -> f.isFile() && !f.isHidden());
+                if (files == null || files.length == 0) {
+                    throw new IllegalArgumentException("No images in " + source);
+                }
+                Arrays.sort(files);
+                return new Replay(null, new ArrayList<>(Arrays.asList(files)), null, maxFrames, loops);
+            }
+            VideoCapture video = new VideoCapture(source, CameraStream.captureApi(source));
+            if (!video.isOpened()) {
+                throw new IllegalArgumentException("Cannot open video " + source);
+            }
+            Replay replay = new Replay(video, null, null, maxFrames, loops);
+            replay.fps = video.get(Videoio.CAP_PROP_FPS);
+            return replay;
+        }
+
+        boolean next(Mat dst) {
+            while (loop < loops) {
+                if (frame < maxFrames && read(dst)) {
+                    frame++;
+                    frameSize = dst.cols() + "x" + dst.rows();
+                    return true;
+                }
+                frame = 0;
+                loop++;
+                if (video != null && loop < loops) {
+                    video.set(Videoio.CAP_PROP_POS_FRAMES, 0);
+                }
+            }
+            return false;
+        }
+
+        private boolean read(Mat dst) {
+            if (synthetic != null) {
+                synthetic.render(frame, dst);
+                return true;
+            }
+            if (images != null) {
+                while (frame < images.size()) {
+                    Mat image = Imgcodecs.imread(images.get(frame).getPath());
+                    if (!image.empty()) {
+                        image.copyTo(dst);
+                        image.release();
+                        return true;
+                    }
+                    image.release();
+                    images.remove(frame);
+                }
+                return false;
+            }
+            return video.read(dst) && !dst.empty();
+        }
+
+        void close() {
+            if (video != null) {
+                video.release();
+            }
+            if (synthetic != null) {
+                synthetic.release();
+            }
+        }
+    }
+
+    // A fixed background with Ali.jpg walking in from the left, standing still in
+    // the middle and walking out, on a 100-frame cycle that starts with 20 empty frames.
+    private static class Synthetic {
+        private static final int WIDTH = 1280;
+        private static final int HEIGHT = 720;
+        private static final int CYCLE = 100;
+
+        private final Mat background = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+        private final Mat person = new Mat();
+
+        Synthetic() {
+            for (int y = 0; y < HEIGHT; y += 40) {
+                // Horizontal bands and a little texture for the detector to reject
+                Imgproc.rectangle(background, new Rect(0, y, WIDTH, 40),
+                        new Scalar(60 + y % 120, 70 + y % 80, 80), -1);
+            }
+            Mat noise = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+            Core.randu(noise, 0, 16);
+            Core.add(background, noise, background);
+            noise.release();
+            Mat ali = Imgcodecs.imread("Ali.jpg");
+            if (ali.empty()) {
+                throw new IllegalArgumentException("Ali.jpg not found in the working directory");
+            }
+            double scale = 480.0 / ali.rows();
+            Imgproc.resize(ali, person, new Size(), scale, scale, Imgproc.INTER_AREA);
+            ali.release();
+        }
+
+        void render(int index, Mat dst) {
+            background.copyTo(dst);
+            int step = index % CYCLE;
+            if (step < 20) return;
+            int centre = (WIDTH - person.cols()) / 2;
+            int x;
+            if (step < 50) {
+                x = centre * (step - 20) / 30;
+            } else if (step < 80) {
+                x = centre + (step % 2);
+            } else {
+                x = centre + (WIDTH - person.cols() - centre) * (step - 80) / 20;
+            }
+            int y = HEIGHT - person.rows();
+            Mat target = dst.submat(new Rect(x, y, person.cols(), person.rows()));
+            person.copyTo(target);
+            target.release();
+        }
+
+        void release() {
+            background.release();
+            person.release();
+        }
+    }
+}
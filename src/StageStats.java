@@ -0,0 +1,112 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency and throughput counters for one pipeline stage. Safe to update from
+// the stage thread while another thread reads it for reporting.
+//
+// Percentiles come from a log-linear histogram of microseconds: 8 buckets per
+// power of two, so a reported percentile is within about 6% of the true value.
+class StageStats {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final String name;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private volatile long lastNanos;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    public StageStats(String name) {
+        this.name = name;
+    }
+
+    public void record(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public void recordNanos(long nanos) {
+        processed.increment();
+        totalNanos.add(nanos);
+        lastNanos = nanos;
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        histogram.incrementAndGet(bucket(Math.max(0, nanos) / 1000));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long processed() {
+        return processed.sum();
+    }
+
+    public double averageMillis() {
+        long count = processed.sum();
+        return count == 0 ? 0.0 : totalNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    public double totalMillis() {
+        return totalNanos.sum() / 1_000_000.0;
+    }
+
+    public double lastMillis() {
+        return lastNanos / 1_000_000.0;
+    }
+
+    public double maxMillis() {
+        return maxNanos.get() / 1_000_000.0;
+    }
+
+    // Latency at percentile (0-100) of everything recorded so far, 0 if nothing was.
+    public double percentileMillis(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketMidpointMicros(i) / 1000.0, maxMillis());
+            }
+        }
+        return maxMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d processed, avg %.1f ms, p50 %.1f ms, p99 %.1f ms, last %.1f ms, max %.1f ms",
+                name, processed(), averageMillis(), percentileMillis(50), percentileMillis(99),
+                lastMillis(), maxMillis());
+    }
+
+    // Values below SUB_BUCKETS get a bucket each; above that, each power of two
+    // is split into SUB_BUCKETS equal buckets.
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    private static double bucketMidpointMicros(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 0.5;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        double width = Math.pow(2, exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + sub) * width + width / 2;
+    }
+}
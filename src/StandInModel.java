@@ -0,0 +1,69 @@
+import org.tensorflow.Graph;
+import org.tensorflow.ndarray.Shape;
+import org.tensorflow.op.Ops;
+import org.tensorflow.op.core.Placeholder;
+import org.tensorflow.op.core.Sum;
+import org.tensorflow.types.TBool;
+import org.tensorflow.types.TFloat32;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+// A small graph with FaceNet's interface (input [N,160,160,3], phase_train,
+// L2-normalised [N,128] embeddings) for machines without facenet_model.pb, so
+// the benchmarks and ReplayBenchmark run from the repository alone. Its
+// inference is far cheaper than the real network's, so embedding results
+// measured with it only cover the tensor copies and the session call around
+// it, and its embeddings match nothing enrolled with the real model. Shapes
+// are int32 constants, which OpenCV's DNN importer also reads.
+final class StandInModel {
+    private static final int POOL = 8;
+
+    private StandInModel() {
+    }
+
+    // modelPath if the file exists; otherwise a freshly written stand-in, with a warning.
+    static String orStandIn(String modelPath) {
+        if (Files.isRegularFile(Path.of(modelPath))) {
+            return modelPath;
+        }
+        System.out.println("Warning: " + Path.of(modelPath).toAbsolutePath() + " not found, using the stand-in graph");
+        return write().toString();
+    }
+
+    static Path write() {
+        try (Graph graph = new Graph()) {
+            Ops tf = Ops.create(graph);
+            Placeholder<TFloat32> input = tf.withName("input").placeholder(TFloat32.class,
+                    Placeholder.shape(Shape.of(-1, 160, 160, 3)));
+            tf.withName("phase_train").placeholder(TBool.class, Placeholder.shape(Shape.scalar()));
+
+            int pooled = (160 / POOL) * (160 / POOL) * 3;
+            List<Long> window = List.of(1L, (long) POOL, (long) POOL, 1L);
+            var features = tf.reshape(tf.nn.avgPool(input, window, window, "VALID"),
+                    tf.constant(new int[] {-1, pooled}));
+            Random random = new Random(1);
+            float[][] weights = new float[pooled][128];
+            for (float[] row : weights) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (float) random.nextGaussian();
+                }
+            }
+            var projected = tf.linalg.matMul(features, tf.constant(weights));
+            var squaredNorm = tf.sum(tf.math.square(projected), tf.constant(new int[] {1}), Sum.keepDims(true));
+            var inverseNorm = tf.math.rsqrt(tf.math.maximum(squaredNorm, tf.constant(1e-10f)));
+            tf.withName("embeddings").math.mul(projected, inverseNorm);
+
+            Path file = Files.createTempFile("standin_facenet", ".pb");
+            file.toFile().deleteOnExit();
+            Files.write(file, graph.toGraphDef().toByteArray());
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import org.opencv.core.*;
+import org.tensorflow.Graph;
+import org.tensorflow.Result;
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.proto.framework.ConfigProto;
+import org.tensorflow.proto.framework.GraphDef;
+import org.tensorflow.types.TBool;
+import org.tensorflow.types.TFloat32;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs the frozen FaceNet graph in a TensorFlow session.
+class TensorFlowEmbedder implements FaceEmbedder {
+    private final Graph graph;
+    private final Session session;
+    private final FaceTensorPool inputPool = new FaceTensorPool();
+    private final TBool phaseTrainTensor = TBool.scalarOf(false);
+    private float[] output = new float[0];
+
+    public TensorFlowEmbedder(String modelPath) {
+        this(modelPath, 0, 0);
+    }
+
+    // intraOpThreads parallelise a single op (the convolutions), interOpThreads
+    // run independent ops concurrently; <= 0 lets TensorFlow use every core for both.
+    public TensorFlowEmbedder(String modelPath, int intraOpThreads, int interOpThreads) {
+        this.graph = new Graph();
+        try {
+            byte[] graphDef = Files.readAllBytes(Path.of(modelPath));
+            graph.importGraphDef(GraphDef.parseFrom(graphDef));
+            ConfigProto.Builder config = ConfigProto.newBuilder();
+            if (intraOpThreads > 0) {
+                config.setIntraOpParallelismThreads(intraOpThreads);
+            }
+            if (interOpThreads > 0) {
+                config.setInterOpParallelismThreads(interOpThreads);
+            }
+            this.session = new Session(graph, config.build());
+        } catch (IOException e) {
+            graph.close();
+            throw new RuntimeException("Failed to load model", e);
+        }
+    }
+
+    @Override
+    public String backend() {
+        return "tensorflow";
+    }
+
+    // Runs every face through the network in a single [N,160,160,3] session call.
+    // Input tensors are pooled, so synchronised callers share them safely.
+    @Override
+    public synchronized List<float[]> getEmbeddings(List<Mat> faces) {
+        int count = faces.size();
+        if (count == 0) {
+            return new ArrayList<>();
+        }
+
+        // Bulk-copy the Mats into a pooled batch tensor
+        TFloat32 inputTensor = inputPool.fill(faces);
+
+        try (Result result = session.runner()
+                .feed("input", inputTensor)
+                .feed("phase_train", phaseTrainTensor)  // Feed the phase_train placeholder
+                .fetch("embeddings")
+                .run()) {
+
+            Tensor outputTensor = result.get(0);
+            int outputSize = count * EMBEDDING_SIZE;
+            if (output.length < outputSize) {
+                output = new float[outputSize];
+            }
+            outputTensor.asRawTensor().data().asFloats().read(output, 0, outputSize);
+
+            List<float[]> embeddings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                embeddings.add(Arrays.copyOfRange(output, i * EMBEDDING_SIZE, (i + 1) * EMBEDDING_SIZE));
+            }
+            return embeddings;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        inputPool.close();
+        phaseTrainTensor.close();
+        session.close();
+        graph.close();
+    }
+}
@@ -0,0 +1,89 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD distance kernels on the incubating Vector API. Only reached through
+// DistanceKernel, which falls back to scalar code when the
+// jdk.incubator.vector module is not enabled (--add-modules jdk.incubator.vector).
+final class VectorDistanceKernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    // int8 codes are widened 8 at a time into 8 float lanes
+    private static final VectorSpecies<Byte> CODE_SPECIES = ByteVector.SPECIES_64;
+    private static final VectorSpecies<Float> CODE_FLOAT_SPECIES = FloatVector.SPECIES_256;
+    // Lane reductions are expensive, so the partial sum is checked less often than
+    // in the scalar kernel: once per 64 dimensions, i.e. halfway through a FaceNet embedding
+    private static final int ABANDON_BLOCK = 64;
+
+    private VectorDistanceKernel() {
+    }
+
+    static float squaredL2(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            FloatVector diff = va.sub(vb);
+            sum = diff.fma(diff, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float d = a[aOffset + i] - b[bOffset + i];
+            result += d * d;
+        }
+        return result;
+    }
+
+    // Stops once the partial sum exceeds bound; the returned value is then
+    // only guaranteed to be greater than bound.
+    static float squaredL2Bounded(float[] a, int aOffset, float[] b, int bOffset, int length, float bound) {
+        // Each chunk is a plain squaredL2 call: keeping the vector loop free of
+        // extra control flow lets C2 keep the accumulator in a register
+        float sum = 0f;
+        int i = 0;
+        while (i < length) {
+            int chunk = Math.min(ABANDON_BLOCK, length - i);
+            sum += squaredL2(a, aOffset + i, b, bOffset + i, chunk);
+            if (sum > bound) {
+                return sum;
+            }
+            i += chunk;
+        }
+        return sum;
+    }
+
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int i = 0;
+        int upper = SPECIES.loopBound(length);
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            sum = va.fma(vb, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    static float dotInt8(float[] a, int aOffset, byte[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(CODE_FLOAT_SPECIES);
+        int i = 0;
+        int upper = CODE_SPECIES.loopBound(length);
+        for (; i < upper; i += CODE_SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(CODE_FLOAT_SPECIES, a, aOffset + i);
+            FloatVector vb = (FloatVector) ByteVector.fromArray(CODE_SPECIES, b, bOffset + i)
+                    .convertShape(VectorOperators.B2F, CODE_FLOAT_SPECIES, 0);
+            sum = va.fma(vb, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+}